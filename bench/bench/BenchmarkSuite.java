@@ -0,0 +1,31 @@
+package bench;
+
+/**
+ * Runs every benchmark in its own JVM, so that they do not warm up or pollute each other
+ */
+public class BenchmarkSuite {
+    private static final Class<?>[] BENCHMARKS = {
+            SignatureBenchmark.class, SignatureAlgorithmBenchmark.class, FanOutBenchmark.class, RoutingBenchmark.class, SweepBenchmark.class,
+            FanOutAllocationBenchmark.class, WireFormatBenchmark.class, LoggingBenchmark.class,
+            SearchBenchmark.class, MessageLogBenchmark.class
+    };
+
+    public static void main(String[] args) throws Exception {
+        String java = System.getProperty("java.home") + "/bin/java";
+        String classPath = System.getProperty("java.class.path");
+        for (Class<?> benchmark : BENCHMARKS) {
+            if (args.length > 0 && !benchmark.getSimpleName().toLowerCase().contains(args[0].toLowerCase()))
+                continue;
+            System.out.println("# " + benchmark.getSimpleName());
+            ProcessBuilder builder = new ProcessBuilder(java, "-cp", classPath);
+            // forward the benchmark settings
+            for (String key : System.getProperties().stringPropertyNames())
+                if (key.startsWith("bench.") || key.startsWith("irc."))
+                    builder.command().add("-D" + key + "=" + System.getProperty(key));
+            builder.command().add(benchmark.getName());
+            int exit = builder.inheritIO().start().waitFor();
+            if (exit != 0)
+                System.err.println("[WARN] " + benchmark.getSimpleName() + " exited with status " + exit + ".");
+        }
+    }
+}
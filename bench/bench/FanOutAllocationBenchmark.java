@@ -0,0 +1,140 @@
+package bench;
+
+import client.ChatMessage;
+import client.IRCClientInterface;
+import server.Channel;
+import server.MessageDispatcher;
+import server.OverflowPolicy;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the heap allocated by a channel broadcast, marshalling included, for growing channel sizes.
+ * Deliveries run on the calling thread and every recipient serializes what it receives the way RMI would,
+ * so the whole cost of a broadcast is charged to the thread being measured.
+ * The baseline builds one message per recipient, as the server did before messages were shared.
+ */
+public class FanOutAllocationBenchmark {
+    private static final int[] MEMBERS = {10, 100, 1000};
+
+    public static void main(String[] args) throws Exception {
+        for (int members : MEMBERS) {
+            run(members, false);
+            run(members, true);
+        }
+    }
+
+    /**
+     * Measures a broadcast to a channel
+     * @param members the number of members of the channel
+     * @param marshal whether the recipients serialize what they receive, without it only the server side is measured
+     */
+    private static void run(int members, boolean marshal) throws Exception {
+        String label = members + " members" + (marshal ? ", marshalled" : "");
+        MessageDispatcher dispatcher = new MessageDispatcher(null, new CallerRunsExecutor(), 1024, OverflowPolicy.DROP_OLDEST);
+        Channel channel = new Channel("general", dispatcher);
+        for (int i = 0; i < members; i++)
+            channel.getClients().put("user" + i, new MarshallingClient("user" + i, marshal));
+        String text = "The quick brown fox jumps over the lazy dog, again and again.";
+
+        double perRecipient = Harness.allocation(label + ", message per recipient", () -> {
+            for (var e : channel.getClients().entrySet())
+                dispatcher.deliver(e.getKey(), e.getValue(), new ChatMessage("alice", text, System.currentTimeMillis()));
+            return null;
+        }, 200);
+        double shared = Harness.allocation(label + ", shared message", () -> {
+            channel.sendMessage("alice", text);
+            return null;
+        }, 200);
+        Harness.report(label + ", saved per recipient", (perRecipient - shared) / members, "B");
+    }
+
+    /**
+     * Runs the tasks on the submitting thread
+     */
+    private static class CallerRunsExecutor extends AbstractExecutorService {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+
+        @Override
+        public void shutdown() {}
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return List.of();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return false;
+        }
+    }
+
+    /**
+     * Client stub optionally serializing the received messages into a discarding stream, as the RMI marshalling would
+     */
+    private static class MarshallingClient implements IRCClientInterface {
+        private final String username;
+        private final boolean marshal;
+
+        MarshallingClient(String username, boolean marshal) {
+            this.username = username;
+            this.marshal = marshal;
+        }
+
+        @Override
+        public String getUsername() {
+            return username;
+        }
+
+        @Override
+        public void sendMessage(String senderUsername, String message) {
+            if (marshal)
+                marshal(senderUsername, message);
+        }
+
+        @Override
+        public void sendMessages(List<ChatMessage> messages) {
+            if (marshal)
+                marshal(messages);
+        }
+
+        @Override
+        public boolean requestPrivateChat(String username) {
+            return false;
+        }
+
+        @Override
+        public void notifyLeave() {}
+
+        /**
+         * Serializes call arguments into a stream discarding the bytes
+         * @param args the arguments
+         */
+        private static void marshal(Object... args) {
+            try (ObjectOutputStream out = new ObjectOutputStream(OutputStream.nullOutputStream())) {
+                for (Object arg : args)
+                    out.writeObject(arg);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package bench;
+
+import server.Channel;
+import server.MessageDispatcher;
+import server.OverflowPolicy;
+import server.ServerExecutors;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures channel broadcasts at 10, 100 and 1000 members against stub clients whose calls take
+ * "bench.client.latency.us" microseconds (default 200): the cost of Channel.sendMessage on the sender's
+ * thread, and the end-to-end delivery throughput until every member received every message.
+ * Every measurement gets its own executor and dispatcher, discarded afterwards, so that the backlog a run leaves
+ * in its lanes is never delivered while the next one is measured.
+ */
+public class FanOutBenchmark {
+    private static final int[] MEMBERS = {10, 100, 1000};
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("irc.logging.level", "warn");
+        long latencyMicros = Long.getLong("bench.client.latency.us", 200);
+        int messages = Integer.getInteger("bench.fanout.messages", 2000);
+        String text = "The quick brown fox jumps over the lazy dog, again and again.";
+
+        for (int members : MEMBERS) {
+            // the sender-side cost, lanes drop what the slow clients cannot keep up with
+            ExecutorService executor = ServerExecutors.newCallbackExecutor("bench-send");
+            MessageDispatcher dispatcher = newDispatcher(executor);
+            Channel channel = newChannel(dispatcher, members, latencyMicros, new ArrayList<>());
+            Harness.measure("sendMessage, " + members + " members", () -> channel.sendMessage("alice", text));
+            discard(executor, dispatcher, members);
+
+            executor = ServerExecutors.newCallbackExecutor("bench-delivery");
+            dispatcher = newDispatcher(executor);
+            ArrayList<StubClient> clients = new ArrayList<>();
+            Channel delivering = newChannel(dispatcher, members, latencyMicros, clients);
+            long start = System.nanoTime();
+            for (int i = 0; i < messages; i++)
+                delivering.sendMessage("alice", text);
+            long expected = (long) messages * members;
+            while (received(clients) < expected)
+                Thread.sleep(1);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            Harness.report("delivered, " + members + " members, " + latencyMicros + " us clients", expected / seconds, "msg/s");
+            discard(executor, dispatcher, members);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Creates a dispatcher with lanes large enough to hold a whole measurement
+     * @param executor the delivery executor
+     * @return the dispatcher
+     */
+    private static MessageDispatcher newDispatcher(ExecutorService executor) {
+        return new MessageDispatcher(null, executor, 1 << 16, OverflowPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * Drops the lanes of a measurement and stops its executor, discarding the messages still queued
+     * @param executor the delivery executor
+     * @param dispatcher the dispatcher
+     * @param members the number of members of the channel
+     */
+    private static void discard(ExecutorService executor, MessageDispatcher dispatcher, int members) throws InterruptedException {
+        for (int i = 0; i < members; i++)
+            dispatcher.removeLane("user" + i);
+        executor.shutdownNow();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Creates a channel filled with stub clients
+     * @param dispatcher the dispatcher delivering the channel messages
+     * @param members the number of members
+     * @param latencyMicros the duration of a call to a member
+     * @param clients receives the created stubs
+     * @return the channel
+     */
+    private static Channel newChannel(MessageDispatcher dispatcher, int members, long latencyMicros, ArrayList<StubClient> clients) {
+        Channel channel = new Channel("bench", dispatcher);
+        for (int i = 0; i < members; i++) {
+            StubClient client = new StubClient("user" + i, latencyMicros);
+            clients.add(client);
+            channel.getClients().put("user" + i, client);
+        }
+        return channel;
+    }
+
+    /**
+     * Returns the number of messages received by a set of clients
+     * @param clients the clients
+     * @return the total received messages
+     */
+    private static long received(ArrayList<StubClient> clients) {
+        long total = 0;
+        for (StubClient c : clients)
+            total += c.getReceived();
+        return total;
+    }
+}
@@ -0,0 +1,96 @@
+package bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Minimal benchmark harness: warms an operation up, then runs it for a fixed time and reports the cost per call.
+ * Results are consumed through a volatile field so that the JIT cannot drop the measured work.
+ */
+public final class Harness {
+    private static volatile Object sink;
+
+    /**
+     * An operation to measure
+     */
+    @FunctionalInterface
+    public interface Operation {
+        Object run() throws Exception;
+    }
+
+    private Harness() {}
+
+    /**
+     * Measures an operation, the duration of the warmup and of the measurement are read from
+     * the "bench.warmup.ms" and "bench.measure.ms" system properties
+     * @param name the name printed with the result
+     * @param operation the operation
+     * @return the average cost of a call in nanoseconds
+     */
+    public static double measure(String name, Operation operation) throws Exception {
+        run(operation, Long.getLong("bench.warmup.ms", 1000));
+        long[] result = run(operation, Long.getLong("bench.measure.ms", 2000));
+        double nanosPerOp = (double) result[1] / result[0];
+        reportTiming(name, nanosPerOp);
+        return nanosPerOp;
+    }
+
+    /**
+     * Prints the cost per call of an operation timed by the caller
+     * @param name the name printed with the result
+     * @param nanosPerOp the average cost of a call in nanoseconds
+     */
+    public static void reportTiming(String name, double nanosPerOp) {
+        System.out.printf("%-50s %12.1f ns/op %14.0f ops/s%n", name, nanosPerOp, 1e9 / nanosPerOp);
+    }
+
+    /**
+     * Runs an operation in a loop for some time
+     * @param operation the operation
+     * @param millis how long to run it
+     * @return the number of calls and the elapsed nanoseconds
+     */
+    private static long[] run(Operation operation, long millis) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        long start = System.nanoTime();
+        long count = 0;
+        long now;
+        do {
+            for (int i = 0; i < 64; i++)
+                sink = operation.run();
+            count += 64;
+            now = System.nanoTime();
+        } while (now < deadline);
+        return new long[]{count, now - start};
+    }
+
+    /**
+     * Measures the heap allocated by the current thread while running an operation, after a warmup
+     * @param name the name printed with the result
+     * @param operation the operation, whose work must happen on the calling thread
+     * @param iterations the number of measured calls
+     * @return the average number of bytes allocated per call
+     */
+    public static double allocation(String name, Operation operation, int iterations) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (int i = 0; i < iterations; i++)
+            sink = operation.run();
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++)
+            sink = operation.run();
+        double bytesPerOp = (double) (threads.getThreadAllocatedBytes(threadId) - before) / iterations;
+        report(name, bytesPerOp, "B/op");
+        return bytesPerOp;
+    }
+
+    /**
+     * Prints a value next to a benchmark name, for results that are not timings
+     * @param name the name of the value
+     * @param value the value
+     * @param unit the unit of the value
+     */
+    public static void report(String name, double value, String unit) {
+        System.out.printf("%-50s %12.1f %s%n", name, value, unit);
+    }
+}
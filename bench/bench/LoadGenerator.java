@@ -0,0 +1,353 @@
+package bench;
+
+import client.ChatMessage;
+import client.IRCClientInterface;
+import client.SignatureManager;
+import server.Histogram;
+import server.IRCServerInterface;
+import server.SessionHandshake;
+
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+import java.rmi.Naming;
+import java.rmi.server.UnicastRemoteObject;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Headless load generator: ramps up simulated users against a server on the loopback RMI registry and reports,
+ * for every step, the end-to-end delivery latency percentiles, the throughput, the errors and the server threads.
+ * Unless "bench.load.server" names a running server, a ServerMain is started in a child JVM with JMX enabled on
+ * "bench.load.jmx.port" (default 9099), from which the thread count is read.
+ * Every user connects with the SignatureManager session handshake, joins one of the "bench.load.channels"
+ * (default general,random) and sends "bench.load.rate" messages per second (default 1) carrying their send time.
+ * The user counts of the steps are read from "bench.load.users" (default 10,25,50,100,200) and the duration of
+ * a step from "bench.load.step.ms" (default 10000).
+ */
+public class LoadGenerator {
+    private static final String DEFAULT_SERVER = "UNIMORE0";
+
+    private final IRCServerInterface server;
+    private final String[] channels;
+    private final String payload;
+    private final ScheduledExecutorService senders;
+    private final List<LoadClient> clients = new ArrayList<>();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private volatile Histogram latencies = new Histogram();
+
+    /**
+     * LoadGenerator constructor
+     * @param server the remote server object
+     * @param channels the channels the users join, in turn
+     * @param payloadBytes the length of the text following the send time in every message
+     * @param senderThreads the number of threads sending the messages
+     */
+    public LoadGenerator(IRCServerInterface server, String[] channels, int payloadBytes, int senderThreads) {
+        this.server = server;
+        this.channels = channels;
+        this.payload = " " + "x".repeat(Math.max(0, payloadBytes));
+        this.senders = Executors.newScheduledThreadPool(senderThreads, daemon("load-sender"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.rmi.server.hostname", "127.0.0.1");
+        String serverName = System.getProperty("bench.load.server");
+        int jmxPort = Integer.getInteger("bench.load.jmx.port", 9099);
+        Process child = null;
+        if (serverName == null) {
+            serverName = DEFAULT_SERVER;
+            child = startServer(jmxPort);
+        }
+        IRCServerInterface server = lookup(serverName, child);
+        JMXConnector jmx = connectJmx(jmxPort);
+        MBeanServerConnection mbeans = jmx == null ? null : jmx.getMBeanServerConnection();
+
+        LoadGenerator generator = new LoadGenerator(server,
+                System.getProperty("bench.load.channels", "general,random").split(","),
+                Integer.getInteger("bench.load.payload", 64), Integer.getInteger("bench.load.senders", 32));
+        double rate = Double.parseDouble(System.getProperty("bench.load.rate", "1"));
+        long stepMillis = Long.getLong("bench.load.step.ms", 10000);
+        System.out.printf("%7s %10s %12s %9s %9s %9s %9s %7s %8s %8s%n", "users", "sent/s", "delivered/s",
+                "p50 ms", "p99 ms", "p99.9 ms", "max ms", "errors", "threads", "failed");
+        try {
+            for (String step : System.getProperty("bench.load.users", "10,25,50,100,200").split(",")) {
+                generator.rampTo(Integer.parseInt(step.trim()), rate);
+                generator.runStep(stepMillis, mbeans, serverName);
+            }
+        } finally {
+            generator.close();
+            if (jmx != null)
+                jmx.close();
+            if (child != null)
+                child.destroy();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Starts a ServerMain in a child JVM, forwarding the "irc." system properties
+     * @param jmxPort the port of the child's JMX agent
+     * @return the child process
+     */
+    private static Process startServer(int jmxPort) throws Exception {
+        ProcessBuilder builder = new ProcessBuilder(System.getProperty("java.home") + "/bin/java",
+                "-cp", System.getProperty("java.class.path"),
+                "-Djava.rmi.server.hostname=127.0.0.1",
+                "-Dcom.sun.management.jmxremote.host=127.0.0.1",
+                "-Dcom.sun.management.jmxremote.port=" + jmxPort,
+                "-Dcom.sun.management.jmxremote.rmi.port=" + jmxPort,
+                "-Dcom.sun.management.jmxremote.authenticate=false",
+                "-Dcom.sun.management.jmxremote.ssl=false",
+                "-Dirc.logging.level=" + System.getProperty("irc.logging.level", "warn"));
+        for (String key : System.getProperties().stringPropertyNames())
+            if (key.startsWith("irc.") && !key.equals("irc.logging.level"))
+                builder.command().add("-D" + key + "=" + System.getProperty(key));
+        builder.command().add("server.ServerMain");
+        return builder.inheritIO().start();
+    }
+
+    /**
+     * Looks the server up, waiting up to 30 seconds for it to be bound
+     * @param serverName the name of the server in the registry
+     * @param child the server process started by the generator, may be null
+     * @return the remote server object
+     */
+    private static IRCServerInterface lookup(String serverName, Process child) throws Exception {
+        long deadline = System.currentTimeMillis() + 30000;
+        while (true) {
+            try {
+                return (IRCServerInterface) Naming.lookup(serverName);
+            } catch (Exception e) {
+                if ((child != null && !child.isAlive()) || System.currentTimeMillis() > deadline)
+                    throw e;
+                Thread.sleep(200);
+            }
+        }
+    }
+
+    /**
+     * Connects to the JMX agent of the server
+     * @param port the port of the agent
+     * @return the connector, null if the agent is unreachable
+     */
+    private static JMXConnector connectJmx(int port) {
+        try {
+            return JMXConnectorFactory.connect(
+                    new JMXServiceURL("service:jmx:rmi:///jndi/rmi://127.0.0.1:" + port + "/jmxrmi"));
+        } catch (Exception e) {
+            System.err.println("[WARN] No JMX agent on port " + port + ", server threads are not reported.");
+            return null;
+        }
+    }
+
+    /**
+     * Connects new users until there are the requested number, in parallel, and starts their sends
+     * @param users the number of users
+     * @param rate the messages sent per second by every user
+     */
+    public void rampTo(int users, double rate) throws InterruptedException {
+        ExecutorService connectors = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                daemon("load-connect"));
+        List<Callable<LoadClient>> tasks = new ArrayList<>();
+        for (int i = clients.size(); i < users; i++) {
+            int index = i;
+            tasks.add(() -> connect("load-" + index, channels[index % channels.length]));
+        }
+        for (Future<LoadClient> f : connectors.invokeAll(tasks)) {
+            try {
+                LoadClient client = f.get();
+                clients.add(client);
+                long periodNanos = (long) (1e9 / rate);
+                senders.scheduleAtFixedRate(client::sendOne,
+                        ThreadLocalRandom.current().nextLong(periodNanos), periodNanos, TimeUnit.NANOSECONDS);
+            } catch (Exception e) {
+                errors.increment();
+            }
+        }
+        connectors.shutdown();
+    }
+
+    /**
+     * Connects a user with a session key and joins a channel
+     * @param username the username
+     * @param channel the channel
+     * @return the connected user
+     */
+    private LoadClient connect(String username, String channel) throws Exception {
+        LoadClient client = new LoadClient(username, channel);
+        SignatureManager sm = client.sm;
+        PublicKey sessionKey = sm.startSession();
+        SessionHandshake handshake = server.connectWithSession(username, sm.getPublicKey(), sessionKey,
+                sm.sign(SessionHandshake.fingerprint(username, sessionKey)), client);
+        if (handshake == null)
+            throw new IllegalStateException("connection of " + username + " refused");
+        sm.completeSession(username, handshake);
+        long leaseMillis = server.renewLease(username, sm.signWithNonce((username + ":lease").getBytes()));
+        if (leaseMillis > 0)
+            senders.scheduleAtFixedRate(client::renewLease, leaseMillis / 3, leaseMillis / 3, TimeUnit.MILLISECONDS);
+        if (server.joinChannel(username, channel, sm.signWithNonce((username + channel).getBytes())) != 0)
+            throw new IllegalStateException(username + " could not join " + channel);
+        return client;
+    }
+
+    /**
+     * Lets the load settle, then measures it for a step and prints a row of the report
+     * @param millis the duration of the measurement
+     * @param mbeans the server's JMX connection, may be null
+     * @param serverName the name of the server, for its metrics
+     */
+    public void runStep(long millis, MBeanServerConnection mbeans, String serverName) throws Exception {
+        Thread.sleep(Math.min(1000, millis / 5));
+        latencies = new Histogram();
+        sent.reset();
+        delivered.reset();
+        long errorsBefore = errors.sum();
+        long start = System.nanoTime();
+        Thread.sleep(millis);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Histogram h = latencies;
+        Object threads = "n/a";
+        Object failed = "n/a";
+        if (mbeans != null) {
+            threads = mbeans.getAttribute(new ObjectName("java.lang:type=Threading"), "ThreadCount");
+            failed = mbeans.getAttribute(new ObjectName("rmi_irc:type=Server,name=" + ObjectName.quote(serverName)), "FailedCallbacks");
+        }
+        System.out.printf("%7d %10.0f %12.0f %9.2f %9.2f %9.2f %9.2f %7d %8s %8s%n", clients.size(),
+                sent.sum() / seconds, delivered.sum() / seconds, h.getPercentile(0.5) / 1e3,
+                h.getPercentile(0.99) / 1e3, h.getPercentile(0.999) / 1e3, h.getMax() / 1e3,
+                errors.sum() - errorsBefore, threads, failed);
+    }
+
+    /**
+     * Stops the sends and disconnects the users
+     */
+    public void close() {
+        senders.shutdownNow();
+        for (LoadClient client : clients) {
+            try {
+                server.disconnect(client.username, client.sm.signWithNonce(client.username.getBytes()));
+                UnicastRemoteObject.unexportObject(client, true);
+            } catch (Exception ignored) {
+                // the server is going away anyway
+            }
+        }
+    }
+
+    /**
+     * Records the delivery of a message sent by a user of this generator
+     * @param text the message text, starting with the send time
+     */
+    private void onDelivered(String text) {
+        int space = text.indexOf(' ');
+        if (space <= 0)
+            return;
+        try {
+            long sentNanos = Long.parseLong(text, 0, space, 10);
+            latencies.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sentNanos));
+            delivered.increment();
+        } catch (NumberFormatException ignored) {
+            // not a load message
+        }
+    }
+
+    /**
+     * Creates a factory of daemon threads
+     * @param name the name of the threads
+     * @return the thread factory
+     */
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * A simulated user, receiving its callbacks through RMI like a real client
+     */
+    private class LoadClient extends UnicastRemoteObject implements IRCClientInterface {
+        private static final long serialVersionUID = 1L;
+
+        private final String username;
+        private final String channel;
+        private final SignatureManager sm;
+
+        /**
+         * LoadClient constructor
+         * @param username the username
+         * @param channel the channel the user sends to
+         */
+        LoadClient(String username, String channel) throws Exception {
+            super();
+            this.username = username;
+            this.channel = channel;
+            this.sm = new SignatureManager();
+        }
+
+        /**
+         * Sends a message carrying the current time to the channel
+         */
+        void sendOne() {
+            try {
+                String text = System.nanoTime() + payload;
+                server.sendMessage(new ChatMessage(username, channel, text, System.currentTimeMillis(),
+                        sm.signWithNonce(text.getBytes())));
+                sent.increment();
+            } catch (Exception e) {
+                errors.increment();
+            }
+        }
+
+        /**
+         * Renews the lease of the user
+         */
+        void renewLease() {
+            try {
+                server.renewLease(username, sm.signWithNonce((username + ":lease").getBytes()));
+            } catch (Exception e) {
+                errors.increment();
+            }
+        }
+
+        @Override
+        public void sendMessage(String senderUsername, String message) {
+            onDelivered(message);
+        }
+
+        @Override
+        public void sendMessages(List<ChatMessage> messages) {
+            for (ChatMessage m : messages)
+                onDelivered(m.getMessage());
+        }
+
+        @Override
+        public boolean requestPrivateChat(String username) {
+            return false;
+        }
+
+        @Override
+        public void notifyLeave() {
+        }
+
+        @Override
+        public String getUsername() {
+            return username;
+        }
+    }
+}
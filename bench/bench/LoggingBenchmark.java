@@ -0,0 +1,36 @@
+package bench;
+
+import server.ServerLog;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+
+/**
+ * Compares the request-path cost of logging a sent message with a synchronized println and with the server log.
+ * Both write to the null device, so only the cost on the calling thread differs.
+ */
+public class LoggingBenchmark {
+    public static void main(String[] args) throws Exception {
+        String devNull = File.separatorChar == '\\' ? "NUL" : "/dev/null";
+        System.setProperty("irc.logging.file", devNull);
+        PrintStream stdout = new PrintStream(new FileOutputStream(devNull), true);
+        String username = "alice";
+        String channel = "general";
+        String message = "The quick brown fox jumps over the lazy dog, again and again.";
+
+        Harness.measure("println with concatenation", () -> {
+            stdout.println("[INFO] " + username + " sent message \"" + message + "\"" + " to channel \"" + channel + "\".");
+            return null;
+        });
+        long start = System.nanoTime();
+        Harness.measure("server log", () -> {
+            ServerLog.info("{} sent message \"{}\" to channel \"{}\".", username, ServerLog.body(message), channel);
+            return null;
+        });
+        double seconds = (System.nanoTime() - start) / 1e9;
+        // the callers outpace the writer here, the records it could not keep up with are dropped
+        Harness.report("server log writer throughput", ServerLog.getWrittenRecords() / seconds, "records/s");
+        Harness.report("server log dropped records", ServerLog.getDroppedRecords(), "");
+    }
+}
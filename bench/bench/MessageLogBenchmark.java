@@ -0,0 +1,57 @@
+package bench;
+
+import client.ChatMessage;
+import server.FsyncPolicy;
+import server.MessageLog;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Measures the sustained throughput of the message log for each fsync policy.
+ * A single producer appends as fast as the log accepts messages, the time includes the final flush.
+ */
+public class MessageLogBenchmark {
+    public static void main(String[] args) throws Exception {
+        long millis = Long.getLong("bench.measure.ms", 2000);
+        ChatMessage message = new ChatMessage("alice", "The quick brown fox jumps over the lazy dog, again and again.", System.currentTimeMillis());
+        for (FsyncPolicy policy : FsyncPolicy.values()) {
+            Path directory = Files.createTempDirectory("irc-log-bench");
+            try {
+                MessageLog log = new MessageLog(directory, 64 << 20, policy, 100, 4, 0, 65536);
+                long start = System.nanoTime();
+                long deadline = start + millis * 1_000_000;
+                long sent = 0;
+                while (System.nanoTime() < deadline) {
+                    if (log.append("general", message))
+                        sent++;
+                    else
+                        Thread.onSpinWait();
+                }
+                log.close();
+                double seconds = (System.nanoTime() - start) / 1e9;
+                Harness.report(policy + " throughput", log.getAppended() / seconds, "msg/s");
+                Harness.report(policy + " fsyncs", log.getFsyncs(), "");
+                Harness.report(policy + " bytes written", log.getWrittenBytes(), "B");
+                if (log.getAppended() != sent)
+                    System.err.println("[WARN] " + (sent - log.getAppended()) + " messages lost by " + policy + ".");
+            } finally {
+                delete(directory);
+            }
+        }
+    }
+
+    /**
+     * Deletes a directory and its files
+     * @param directory the directory
+     */
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path p : files.sorted(Comparator.reverseOrder()).toList())
+                Files.deleteIfExists(p);
+        }
+    }
+}
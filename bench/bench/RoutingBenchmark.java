@@ -0,0 +1,71 @@
+package bench;
+
+import client.SignatureManager;
+import server.IRCServer;
+import server.SessionHandshake;
+
+import java.security.PublicKey;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Measures the request routing of a server with many channels: sending to a random channel, joining and
+ * leaving a random channel, listing the channels and looking a client up. The clients authenticate with HMAC
+ * session keys so that the verification does not hide the routing cost.
+ */
+public class RoutingBenchmark {
+    public static void main(String[] args) throws Exception {
+        System.setProperty("irc.logging.level", "warn");
+        int channelCount = Integer.getInteger("bench.routing.channels", 1000);
+        int userCount = Integer.getInteger("bench.routing.users", 16);
+
+        IRCServer server = new IRCServer("bench-routing");
+        String[] channels = new String[channelCount];
+        for (int i = 0; i < channelCount; i++) {
+            channels[i] = "channel" + i;
+            server.addChannel(channels[i]);
+        }
+        // members spread over the channels, so that broadcasts have a few recipients
+        SignatureManager[] managers = new SignatureManager[userCount];
+        for (int i = 0; i < userCount; i++) {
+            String username = "user" + i;
+            managers[i] = connect(server, username);
+            String channel = channels[i % channelCount];
+            server.joinChannel(username, channel, managers[i].signWithNonce((username + channel).getBytes()));
+        }
+        String sender = "sender";
+        SignatureManager sm = connect(server, sender);
+        byte[] text = "hello".getBytes();
+
+        Harness.measure("sendMessage to one of " + channelCount + " channels", () -> {
+            String channel = channels[ThreadLocalRandom.current().nextInt(channelCount)];
+            server.sendMessage(sender, channel, "hello", sm.signWithNonce(text));
+            return null;
+        });
+        Harness.measure("join and leave one of " + channelCount + " channels", () -> {
+            String channel = channels[ThreadLocalRandom.current().nextInt(channelCount)];
+            byte[] fingerprint = (sender + channel).getBytes();
+            int joined = server.joinChannel(sender, channel, sm.signWithNonce(fingerprint));
+            server.leaveChannel(sender, channel, sm.signWithNonce(fingerprint));
+            return joined;
+        });
+        Harness.measure("getChannelDescriptions, " + channelCount + " channels", server::getChannelDescriptions);
+        Harness.measure("getClient among " + (userCount + 1) + " users", () ->
+                server.getClient("user" + ThreadLocalRandom.current().nextInt(userCount)));
+        System.exit(0);
+    }
+
+    /**
+     * Connects a stub client with an HMAC session
+     * @param server the server
+     * @param username the username
+     * @return the signature manager of the client
+     */
+    private static SignatureManager connect(IRCServer server, String username) throws Exception {
+        SignatureManager sm = new SignatureManager();
+        PublicKey sessionKey = sm.startSession();
+        SessionHandshake handshake = server.connectWithSession(username, sm.getPublicKey(), sessionKey,
+                sm.sign(SessionHandshake.fingerprint(username, sessionKey)), new StubClient(username, 0));
+        sm.completeSession(username, handshake);
+        return sm;
+    }
+}
@@ -0,0 +1,40 @@
+package bench;
+
+import client.ChatMessage;
+import server.MessageIndex;
+import server.SearchQuery;
+
+import java.util.Random;
+
+/**
+ * Measures the query latency of the message index filled with synthetic channel traffic
+ */
+public class SearchBenchmark {
+    private static final String[] WORDS = {"the", "server", "deploy", "build", "coffee", "lunch", "release", "bug",
+            "fix", "review", "merge", "test", "meeting", "today", "tomorrow", "friday", "weekend", "rmi", "nio", "lease"};
+
+    public static void main(String[] args) throws Exception {
+        int messages = Integer.getInteger("bench.search.messages", 2_000_000);
+        MessageIndex index = new MessageIndex(65536, (messages + 65535) / 65536);
+        Random random = new Random(42);
+        long now = System.currentTimeMillis();
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int w = 0; w < 8; w++)
+                text.append(WORDS[Math.min(WORDS.length - 1, (int) Math.abs(random.nextGaussian() * 6))]).append(' ');
+            text.append("token").append(i % 100_000);
+            String channel = (i % 10 == 0) ? "random" : "general";
+            index.add(channel, new ChatMessage("user" + random.nextInt(500), text.toString(), now - (messages - i) * 300L));
+        }
+        Harness.report("index " + messages + " messages", (System.nanoTime() - start) / 1e6, "ms");
+        Harness.report("indexed heap", (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / 1e6, "MB");
+
+        Harness.measure("common word, first page", () -> index.search(new SearchQuery("the", null, null, 0, 0, 0, 20)));
+        Harness.measure("two words, channel filter", () -> index.search(new SearchQuery("lunch friday", "random", null, 0, 0, 0, 20)));
+        Harness.measure("rare word", () -> index.search(new SearchQuery("token4242", null, null, 0, 0, 0, 20)));
+        Harness.measure("sender, last week", () -> index.search(new SearchQuery(null, "general", "user42", now - 7 * 86_400_000L, 0, 0, 20)));
+        Harness.measure("rare words, no match", () -> index.search(new SearchQuery("weekend lease token7", null, null, 0, 0, 0, 20)));
+        Harness.measure("common word, page 50", () -> index.search(new SearchQuery("deploy", null, null, 0, 0, 1000, 20)));
+    }
+}
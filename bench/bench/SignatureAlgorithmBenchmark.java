@@ -0,0 +1,37 @@
+package bench;
+
+import server.SignatureAlgorithm;
+
+import java.security.KeyPair;
+import java.security.Signature;
+
+/**
+ * Measures key pair generation, signing and verification for every signature algorithm a client can connect
+ * with, to compare the startup cost of a client and the cost of a signed request.
+ */
+public class SignatureAlgorithmBenchmark {
+    public static void main(String[] args) throws Exception {
+        byte[] message = "The quick brown fox jumps over the lazy dog, request 0000000000".getBytes();
+        for (SignatureAlgorithm algorithm : SignatureAlgorithm.values()) {
+            Harness.measure("keygen, " + algorithm.getId(), algorithm::generateKeyPair);
+
+            KeyPair keys = algorithm.generateKeyPair();
+            Signature signer = algorithm.newSignature();
+            signer.initSign(keys.getPrivate());
+            Harness.measure("sign, " + algorithm.getId(), () -> {
+                signer.update(message);
+                return signer.sign();
+            });
+
+            signer.update(message);
+            byte[] signed = signer.sign();
+            Signature verifier = algorithm.newSignature();
+            verifier.initVerify(keys.getPublic());
+            Harness.measure("verify, " + algorithm.getId(), () -> {
+                verifier.update(message);
+                return verifier.verify(signed);
+            });
+            Harness.report("signature size, " + algorithm.getId(), signed.length, "bytes");
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package bench;
+
+import client.SignatureManager;
+import server.IRCServer;
+import server.SessionHandshake;
+import server.SignatureVerifier;
+
+import java.security.PublicKey;
+
+/**
+ * Measures the signing cost on the client and the verification cost on the server, for RSA signatures and for
+ * HMAC session keys. Verifications go through the replay window, so every measured fingerprint is a fresh one
+ * signed beforehand.
+ */
+public class SignatureBenchmark {
+    public static void main(String[] args) throws Exception {
+        System.setProperty("irc.logging.level", "warn");
+        int rsaPool = Integer.getInteger("bench.signature.rsa.pool", 2000);
+        int macPool = Integer.getInteger("bench.signature.mac.pool", 200_000);
+        byte[] message = "The quick brown fox jumps over the lazy dog".getBytes();
+
+        IRCServer server = new IRCServer("bench-signature");
+        SignatureVerifier verifier = server.getSignatureVerifier();
+
+        SignatureManager rsa = new SignatureManager();
+        rsa.setSeed(server.connect("alice", rsa.getPublicKey(), rsa.sign("alice".getBytes()), new StubClient("alice", 0)));
+        Harness.measure("signWithNonce, RSA", () -> rsa.signWithNonce(message));
+        measureVerify("verifySignature, RSA", verifier, "alice", rsa, message, rsaPool);
+
+        SignatureManager mac = new SignatureManager();
+        PublicKey sessionKey = mac.startSession();
+        SessionHandshake handshake = server.connectWithSession("bob", mac.getPublicKey(), sessionKey,
+                mac.sign(SessionHandshake.fingerprint("bob", sessionKey)), new StubClient("bob", 0));
+        mac.completeSession("bob", handshake);
+        Harness.measure("signWithNonce, HMAC session", () -> mac.signWithNonce(message));
+        measureVerify("verifySignature, HMAC session", verifier, "bob", mac, message, macPool);
+        System.exit(0);
+    }
+
+    /**
+     * Signs a pool of fingerprints, then times their verification in order
+     * @param name the name printed with the result
+     * @param verifier the server's verifier
+     * @param username the user the fingerprints belong to
+     * @param signer the user's signature manager
+     * @param message the signed message
+     * @param pool the number of fingerprints
+     */
+    private static void measureVerify(String name, SignatureVerifier verifier, String username, SignatureManager signer,
+                                      byte[] message, int pool) throws Exception {
+        byte[][] fingerprints = new byte[pool][];
+        for (int i = 0; i < pool; i++)
+            fingerprints[i] = signer.signWithNonce(message);
+        // warm up on the first half, time the second one
+        int half = pool / 2;
+        for (int i = 0; i < half; i++)
+            verifier.verifySignature(username, message, fingerprints[i]);
+        int failed = 0;
+        long start = System.nanoTime();
+        for (int i = half; i < pool; i++)
+            if (!verifier.verifySignature(username, message, fingerprints[i]))
+                failed++;
+        double nanosPerOp = (double) (System.nanoTime() - start) / (pool - half);
+        Harness.reportTiming(name, nanosPerOp);
+        if (failed > 0)
+            System.err.println("[WARN] " + failed + " verifications failed in " + name + ".");
+    }
+}
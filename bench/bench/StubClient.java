@@ -0,0 +1,85 @@
+package bench;
+
+import client.ChatMessage;
+import client.IRCClientInterface;
+
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process client used by the benchmarks: every call takes a configurable time, as a remote call would,
+ * and the received messages are counted. A dead stub fails every call.
+ */
+public class StubClient implements IRCClientInterface {
+    private final String username;
+    private final long latencyNanos;
+    private final LongAdder received = new LongAdder();
+    private volatile boolean dead = false;
+
+    /**
+     * StubClient constructor
+     * @param username the username returned by getUsername
+     * @param latencyMicros the time every call takes, in microseconds
+     */
+    public StubClient(String username, long latencyMicros) {
+        this.username = username;
+        this.latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+    }
+
+    /**
+     * Makes every later call fail, as for an unreachable client
+     */
+    public void kill() {
+        dead = true;
+    }
+
+    /**
+     * Returns the number of messages received
+     * @return the received messages count
+     */
+    public long getReceived() {
+        return received.sum();
+    }
+
+    /**
+     * Simulates the duration of a remote call
+     */
+    private void call() throws RemoteException {
+        if (latencyNanos > 0)
+            LockSupport.parkNanos(latencyNanos);
+        if (dead)
+            throw new RemoteException("Stub client " + username + " is dead.");
+    }
+
+    @Override
+    public String getUsername() throws RemoteException {
+        call();
+        return username;
+    }
+
+    @Override
+    public void sendMessage(String senderUsername, String message) throws RemoteException {
+        call();
+        received.increment();
+    }
+
+    @Override
+    public void sendMessages(List<ChatMessage> messages) throws RemoteException {
+        call();
+        received.add(messages.size());
+    }
+
+    @Override
+    public boolean requestPrivateChat(String username) throws RemoteException {
+        call();
+        return true;
+    }
+
+    @Override
+    public void notifyLeave() throws RemoteException {
+        call();
+    }
+}
@@ -0,0 +1,38 @@
+package bench;
+
+import client.IRCClientInterface;
+import server.DisconnectDetector;
+import server.IRCServer;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Measures the duration of a liveness sweep over lobbies of 1000 and 10000 stub clients answering in
+ * "bench.client.latency.us" microseconds (default 1000), 1% of which are dead and get evicted.
+ * Probes are paced over half of the sweep period, "bench.sweep.period.ms" (default 1000), so a healthy sweep
+ * takes about half a period.
+ */
+public class SweepBenchmark {
+    private static final int[] CLIENTS = {1000, 10000};
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("irc.logging.level", "warn");
+        long latencyMicros = Long.getLong("bench.client.latency.us", 1000);
+        long periodMillis = Long.getLong("bench.sweep.period.ms", 1000);
+        for (int count : CLIENTS) {
+            IRCServer server = new IRCServer("bench-sweep-" + count);
+            ConcurrentHashMap<String, IRCClientInterface> lobby = server.getClientsInLobby();
+            for (int i = 0; i < count; i++) {
+                StubClient client = new StubClient("user" + i, latencyMicros);
+                if (i % 100 == 0)
+                    client.kill();
+                lobby.put("user" + i, client);
+            }
+            DisconnectDetector detector = new DisconnectDetector(server, periodMillis);
+            detector.run();
+            Harness.report("sweep, " + count + " clients", detector.getLastSweepMillis(), "ms");
+            Harness.report("sweep, " + count + " clients, evicted", detector.getEvictions(), "clients");
+        }
+        System.exit(0);
+    }
+}
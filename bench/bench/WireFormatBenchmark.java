@@ -0,0 +1,104 @@
+package bench;
+
+import client.ChatMessage;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Compares the cost of marshalling a chat line as separate RMI arguments (Java serialization of the
+ * strings and of the signature) with the compact ChatMessage envelope, for a single line and for a batch.
+ */
+public class WireFormatBenchmark {
+    private static final int BATCH_SIZE = 64;
+
+    public static void main(String[] args) throws Exception {
+        byte[] signature = new byte[8 + 32];
+        new Random(42).nextBytes(signature);
+        String sender = "alice";
+        String channel = "general";
+        String text = "The quick brown fox jumps over the lazy dog, again and again.";
+        ChatMessage message = new ChatMessage(sender, channel, text, System.currentTimeMillis(), signature);
+        ArrayList<ChatMessage> batch = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++)
+            batch.add(new ChatMessage(sender, channel, text + i, System.currentTimeMillis(), null));
+
+        byte[] legacyBytes = serializeArguments(sender, channel, text, signature);
+        byte[] envelopeBytes = serialize(message);
+        Harness.report("single line, separate arguments", legacyBytes.length, "bytes");
+        Harness.report("single line, ChatMessage envelope", envelopeBytes.length, "bytes");
+        Harness.measure("encode single line, separate arguments", () -> serializeArguments(sender, channel, text, signature));
+        Harness.measure("encode single line, ChatMessage envelope", () -> serialize(message));
+        Harness.measure("decode single line, separate arguments", () -> deserializeArguments(legacyBytes));
+        Harness.measure("decode single line, ChatMessage envelope", () -> deserialize(envelopeBytes));
+
+        // a batch used to be one call, hence one stream, per line
+        int legacyBatchBytes = 0;
+        for (ChatMessage m : batch)
+            legacyBatchBytes += serializeArguments(m.getSenderUsername(), m.getMessage()).length;
+        byte[] batchBytes = serialize(batch);
+        Harness.report("batch of " + BATCH_SIZE + ", one call per line", legacyBatchBytes, "bytes");
+        Harness.report("batch of " + BATCH_SIZE + ", ChatMessage list", batchBytes.length, "bytes");
+        Harness.measure("encode batch of " + BATCH_SIZE + ", one call per line", () -> {
+            int total = 0;
+            for (ChatMessage m : batch)
+                total += serializeArguments(m.getSenderUsername(), m.getMessage()).length;
+            return total;
+        });
+        Harness.measure("encode batch of " + BATCH_SIZE + ", ChatMessage list", () -> serialize(batch));
+        Harness.measure("decode batch of " + BATCH_SIZE + ", ChatMessage list", () -> deserialize(batchBytes));
+    }
+
+    /**
+     * Serializes call arguments one by one, as RMI does
+     * @param args the arguments
+     * @return the serialized bytes
+     */
+    static byte[] serializeArguments(Object... args) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            for (Object arg : args)
+                out.writeObject(arg);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Deserializes the four arguments of the legacy sendMessage call
+     * @param data the serialized bytes
+     * @return the last argument
+     */
+    static Object deserializeArguments(byte[] data) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            in.readObject();
+            in.readObject();
+            in.readObject();
+            return in.readObject();
+        }
+    }
+
+    /**
+     * Serializes an object
+     * @param object the object
+     * @return the serialized bytes
+     */
+    static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Deserializes an object
+     * @param data the serialized bytes
+     * @return the object
+     */
+    static Object deserialize(byte[] data) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return in.readObject();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package client;
+
+import transport.WireNames;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A chat line, as sent by a client to the server and as delivered by the server to the clients.
+ * The wire format is hand-written: version, message type, interned sender and channel names,
+ * length-prefixed UTF-8 text, timestamp and authentication tag.
+ * A message is immutable once built and encodes its text only once, so the same instance can be
+ * broadcast to any number of recipients.
+ */
+public class ChatMessage implements Externalizable {
+    public static final byte VERSION = 1;
+    public static final byte TYPE_CHAT = 1;
+    private static final long serialVersionUID = 1L;
+
+    private String senderUsername;
+    private String channel;
+    private String message;
+    private long timestamp;
+    private byte[] authTag;
+    private transient byte[] encodedText;
+
+    /**
+     * Constructor used by deserialization
+     */
+    public ChatMessage() {}
+
+    /**
+     * ChatMessage constructor
+     * @param senderUsername the sender of the message
+     * @param message the message
+     * @param timestamp the time the server accepted the message, in milliseconds since the epoch
+     */
+    public ChatMessage(String senderUsername, String message, long timestamp) {
+        this(senderUsername, null, message, timestamp, null);
+    }
+
+    /**
+     * ChatMessage constructor
+     * @param senderUsername the sender of the message
+     * @param channel the channel the message is sent to
+     * @param message the message
+     * @param timestamp the time the message was sent, in milliseconds since the epoch
+     * @param authTag the signed fingerprint of the message, null for messages delivered by the server
+     */
+    public ChatMessage(String senderUsername, String channel, String message, long timestamp, byte[] authTag) {
+        this.senderUsername = senderUsername;
+        this.channel = channel;
+        this.message = message;
+        this.timestamp = timestamp;
+        this.authTag = authTag;
+    }
+
+    /**
+     * Returns the sender of the message
+     * @return the sender username
+     */
+    public String getSenderUsername() {
+        return senderUsername;
+    }
+
+    /**
+     * Returns the channel the message is sent to
+     * @return the channel name, null if unspecified
+     */
+    public String getChannel() {
+        return channel;
+    }
+
+    /**
+     * Returns the message text
+     * @return the message
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Returns the time the message was sent or accepted by the server
+     * @return the timestamp in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the signed fingerprint of the message
+     * @return the authentication tag, null for messages delivered by the server
+     */
+    public byte[] getAuthTag() {
+        return authTag;
+    }
+
+    /**
+     * Returns the UTF-8 encoding of the text, computed on first use and shared by all the later writes
+     * @return the encoded text, null if the message has no text
+     */
+    private byte[] getEncodedText() {
+        byte[] encoded = encodedText;
+        if (encoded == null && message != null)
+            encodedText = encoded = message.getBytes(StandardCharsets.UTF_8);
+        return encoded;
+    }
+
+    /**
+     * Writes the message in the compact wire format
+     * @param out the stream
+     */
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(VERSION);
+        out.writeByte(TYPE_CHAT);
+        WireNames.writeName(out, senderUsername);
+        WireNames.writeName(out, channel);
+        WireNames.writeBytes(out, getEncodedText());
+        WireNames.writeVarLong(out, timestamp);
+        WireNames.writeBytes(out, authTag);
+    }
+
+    /**
+     * Reads a message written by writeExternal
+     * @param in the stream
+     */
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        byte version = in.readByte();
+        if (version != VERSION)
+            throw new InvalidObjectException("Unsupported message version " + version + ".");
+        byte type = in.readByte();
+        if (type != TYPE_CHAT)
+            throw new InvalidObjectException("Unsupported message type " + type + ".");
+        senderUsername = WireNames.readName(in);
+        channel = WireNames.readName(in);
+        encodedText = WireNames.readBytes(in);
+        message = encodedText == null ? null : new String(encodedText, StandardCharsets.UTF_8);
+        timestamp = WireNames.readVarLong(in);
+        authTag = WireNames.readBytes(in);
+    }
+}
@@ -0,0 +1,123 @@
+package client;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Something the client session has to react to: a line typed by the user, messages received from the server,
+ * a private chat invite, the closing of the current chat or a notice such as a failed send.
+ * Events are produced by the stdin reader, the RMI callbacks and the send pipeline, and consumed by the session
+ * thread only.
+ */
+public class ClientEvent {
+    /**
+     * Kind of event
+     */
+    public enum Type {
+        INPUT, MESSAGES, INVITE, LEAVE, NOTICE, END_OF_INPUT
+    }
+
+    private final Type type;
+    private final String text;
+    private final List<ChatMessage> messages;
+    private final CompletableFuture<Boolean> answer;
+
+    /**
+     * ClientEvent constructor
+     * @param type the kind of event
+     * @param text the typed line for INPUT, the inviting username for INVITE, the notice for NOTICE, null otherwise
+     * @param messages the received messages for MESSAGES, null otherwise
+     * @param answer the future completed with the user's answer for INVITE, null otherwise
+     */
+    private ClientEvent(Type type, String text, List<ChatMessage> messages, CompletableFuture<Boolean> answer) {
+        this.type = type;
+        this.text = text;
+        this.messages = messages;
+        this.answer = answer;
+    }
+
+    /**
+     * Creates the event of a line typed by the user
+     * @param line the line
+     * @return the event
+     */
+    public static ClientEvent input(String line) {
+        return new ClientEvent(Type.INPUT, line, null, null);
+    }
+
+    /**
+     * Creates the event of messages received from the server
+     * @param messages the messages, in delivery order
+     * @return the event
+     */
+    public static ClientEvent messages(List<ChatMessage> messages) {
+        return new ClientEvent(Type.MESSAGES, null, messages, null);
+    }
+
+    /**
+     * Creates the event of a private chat invite
+     * @param username the username that requested the private chat
+     * @param answer the future to complete with true to accept the chat, false to refuse it
+     * @return the event
+     */
+    public static ClientEvent invite(String username, CompletableFuture<Boolean> answer) {
+        return new ClientEvent(Type.INVITE, username, null, answer);
+    }
+
+    /**
+     * Creates the event of the closing of the current chat
+     * @return the event
+     */
+    public static ClientEvent leave() {
+        return new ClientEvent(Type.LEAVE, null, null, null);
+    }
+
+    /**
+     * Creates the event of a notice for the user, such as a message that could not be sent
+     * @param text the notice
+     * @return the event
+     */
+    public static ClientEvent notice(String text) {
+        return new ClientEvent(Type.NOTICE, text, null, null);
+    }
+
+    /**
+     * Creates the event of the end of the standard input
+     * @return the event
+     */
+    public static ClientEvent endOfInput() {
+        return new ClientEvent(Type.END_OF_INPUT, null, null, null);
+    }
+
+    /**
+     * Returns the kind of event
+     * @return the type
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the typed line, the inviting username or the notice
+     * @return the text
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Returns the received messages
+     * @return the messages
+     */
+    public List<ChatMessage> getMessages() {
+        return messages;
+    }
+
+    /**
+     * Returns the future answering an invite
+     * @return the answer
+     */
+    public CompletableFuture<Boolean> getAnswer() {
+        return answer;
+    }
+}
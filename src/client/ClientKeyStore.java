@@ -0,0 +1,220 @@
+package client;
+
+import server.SignatureAlgorithm;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Set;
+
+/**
+ * On-disk store of the client identity keys, so that a client generates its key pair only the first time.
+ * Every username and algorithm has a private key file in PEM encoded PKCS#8 form, readable by its owner only,
+ * and a public key file in PEM encoded X.509 form. The store is enabled by setting "irc.client.keystore" to the
+ * directory holding the files; key files readable by other users are ignored, as ssh does.
+ */
+public class ClientKeyStore {
+    private static final Set<PosixFilePermission> PRIVATE_FILE = PosixFilePermissions.fromString("rw-------");
+    private static final Set<PosixFilePermission> PRIVATE_DIRECTORY = PosixFilePermissions.fromString("rwx------");
+
+    private final Path directory;
+
+    /**
+     * ClientKeyStore constructor
+     * @param directory the directory holding the key files, created on first use
+     */
+    public ClientKeyStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Creates the store configured by the "irc.client.keystore" system property
+     * @return the store, null if no directory is configured
+     */
+    public static ClientKeyStore fromProperties() {
+        String directory = System.getProperty("irc.client.keystore");
+        if (directory == null || directory.isEmpty())
+            return null;
+        return new ClientKeyStore(Paths.get(directory));
+    }
+
+    /**
+     * Loads the key pair of a user, generating and storing it if there is none.
+     * Storage errors are reported and the generated key pair is used for this session only.
+     * @param username the username
+     * @param algorithm the signature algorithm of the key pair
+     * @return the key pair
+     */
+    public KeyPair loadOrGenerate(String username, SignatureAlgorithm algorithm) throws NoSuchAlgorithmException {
+        Path privateFile = directory.resolve(fileName(username, algorithm) + ".key");
+        Path publicFile = directory.resolve(fileName(username, algorithm) + ".pub");
+        if (Files.exists(privateFile) && Files.exists(publicFile)) {
+            try {
+                return load(privateFile, publicFile, algorithm);
+            } catch (IOException | GeneralSecurityException e) {
+                System.err.println("[WARN] Unable to load the keys in " + privateFile + ": " + e.getMessage() + ", generating new ones.");
+            }
+        }
+        KeyPair keys = algorithm.generateKeyPair();
+        try {
+            store(keys, privateFile, publicFile);
+        } catch (IOException e) {
+            System.err.println("[WARN] Unable to store the keys in " + directory + ": " + e.getMessage() + ".");
+        }
+        return keys;
+    }
+
+    /**
+     * Reads a key pair
+     * @param privateFile the PKCS#8 private key file
+     * @param publicFile the X.509 public key file
+     * @param algorithm the signature algorithm of the key pair
+     * @return the key pair
+     */
+    private static KeyPair load(Path privateFile, Path publicFile, SignatureAlgorithm algorithm) throws IOException, GeneralSecurityException {
+        if (isShared(privateFile))
+            throw new IOException("the file is accessible by other users");
+        KeyFactory factory = KeyFactory.getInstance(algorithm.getKeyAlgorithm());
+        PrivateKey privateKey = factory.generatePrivate(new PKCS8EncodedKeySpec(readPem(privateFile)));
+        PublicKey publicKey = factory.generatePublic(new X509EncodedKeySpec(readPem(publicFile)));
+        if (SignatureAlgorithm.fromKey(publicKey) != algorithm)
+            throw new IOException("the key does not use " + algorithm.getId());
+        if (!isPair(privateKey, publicKey, algorithm))
+            throw new IOException("the public key does not match the private key");
+        return new KeyPair(publicKey, privateKey);
+    }
+
+    /**
+     * Checks that a private and a public key form a pair, by signing a random probe and verifying it
+     * @param privateKey the private key
+     * @param publicKey the public key
+     * @param algorithm the signature algorithm of the keys
+     * @return true if the public key verifies the signatures of the private key
+     */
+    private static boolean isPair(PrivateKey privateKey, PublicKey publicKey, SignatureAlgorithm algorithm) throws GeneralSecurityException {
+        byte[] probe = new byte[32];
+        new SecureRandom().nextBytes(probe);
+        Signature signature = algorithm.newSignature();
+        signature.initSign(privateKey);
+        signature.update(probe);
+        byte[] signed = signature.sign();
+        signature.initVerify(publicKey);
+        signature.update(probe);
+        return signature.verify(signed);
+    }
+
+    /**
+     * Writes a key pair. Each file is written to a temporary file first, then moved in place, so that an
+     * interrupted write never leaves a truncated key behind.
+     * @param keys the key pair
+     * @param privateFile the PKCS#8 private key file
+     * @param publicFile the X.509 public key file
+     */
+    private void store(KeyPair keys, Path privateFile, Path publicFile) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            if (isPosix())
+                Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(PRIVATE_DIRECTORY));
+            else
+                Files.createDirectories(directory);
+        }
+        writePem(privateFile, "PRIVATE KEY", keys.getPrivate().getEncoded());
+        writePem(publicFile, "PUBLIC KEY", keys.getPublic().getEncoded());
+    }
+
+    /**
+     * Writes a PEM file readable by its owner only
+     * @param file the file
+     * @param label the PEM label
+     * @param der the DER encoded key
+     */
+    private static void writePem(Path file, String label, byte[] der) throws IOException {
+        String pem = "-----BEGIN " + label + "-----\n"
+                + Base64.getMimeEncoder(64, new byte[]{'\n'}).encodeToString(der)
+                + "\n-----END " + label + "-----\n";
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.deleteIfExists(temporary);
+        try {
+            if (isPosix())
+                Files.createFile(temporary, PosixFilePermissions.asFileAttribute(PRIVATE_FILE));
+            else
+                Files.createFile(temporary);
+        } catch (FileAlreadyExistsException e) {
+            throw new IOException("another client is writing " + file, e);
+        }
+        if (!isPosix()) {
+            // best effort outside of POSIX file systems
+            temporary.toFile().setReadable(false, false);
+            temporary.toFile().setReadable(true, true);
+        }
+        Files.write(temporary, pem.getBytes(StandardCharsets.US_ASCII));
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the DER content of a PEM file
+     * @param file the file
+     * @return the decoded content
+     */
+    private static byte[] readPem(Path file) throws IOException {
+        StringBuilder base64 = new StringBuilder();
+        for (String line : Files.readAllLines(file, StandardCharsets.US_ASCII))
+            if (!line.startsWith("-----"))
+                base64.append(line.trim());
+        try {
+            return Base64.getDecoder().decode(base64.toString());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("malformed PEM file " + file, e);
+        }
+    }
+
+    /**
+     * Checks whether a file can be accessed by users other than its owner
+     * @param file the file
+     * @return true if the group or the others have any permission on the file
+     */
+    private static boolean isShared(Path file) throws IOException {
+        if (!isPosix())
+            return false;
+        Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(file);
+        permissions.removeAll(PRIVATE_FILE);
+        permissions.remove(PosixFilePermission.OWNER_EXECUTE);
+        return !permissions.isEmpty();
+    }
+
+    /**
+     * Checks whether the default file system supports POSIX permissions
+     * @return true on POSIX file systems
+     */
+    private static boolean isPosix() {
+        return Paths.get("").getFileSystem().supportedFileAttributeViews().contains("posix");
+    }
+
+    /**
+     * Returns the base name of the key files of a user: the hex encoded UTF-8 username, so that distinct usernames
+     * never share a file whatever characters they contain, even on case-insensitive file systems
+     * @param username the username
+     * @param algorithm the signature algorithm
+     * @return the base name
+     */
+    private static String fileName(String username, SignatureAlgorithm algorithm) {
+        return HexFormat.of().formatHex(username.getBytes(StandardCharsets.UTF_8)) + "." + algorithm.getId();
+    }
+}
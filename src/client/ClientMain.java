@@ -3,8 +3,6 @@ package client;
 import java.net.MalformedURLException;
 import java.rmi.AlreadyBoundException;
 import java.rmi.RemoteException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
 import java.util.Scanner;
 
 public class ClientMain {
@@ -20,8 +18,6 @@ public class ClientMain {
         ClientSession cs = null;
         try {
             cs = new ClientSession(username);
-        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
-            System.err.print("Unsupported ciphers.");
         } catch (RemoteException e) {
             System.err.println("Server " + serverName + " does not exist.");
         }
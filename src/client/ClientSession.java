@@ -1,70 +1,93 @@
 package client;
 
 import server.IRCServerInterface;
+import server.SearchQuery;
+import server.SessionHandshake;
+import server.SignatureAlgorithm;
+import transport.RemoteCalls;
 
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.net.MalformedURLException;
 import java.rmi.AlreadyBoundException;
-import java.rmi.Naming;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
+import java.rmi.ServerException;
+import java.rmi.UnmarshalException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
 import java.security.SignatureException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class ClientSession {
     private IRCClient client;
     private SignatureManager sm;
     private IRCServerInterface server;
-    private ReentrantLock stdinLock = new ReentrantLock();
-    private BufferedReader stdin = new BufferedReader(new InputStreamReader(System.in));
+    private SendPipeline sender;
+    private final LinkedBlockingQueue<ClientEvent> events = new LinkedBlockingQueue<>();
+    // invites and leave notifications received while a prompt was waiting for a line
+    private final ArrayDeque<ClientEvent> deferred = new ArrayDeque<>();
+    // leave notifications the server sends back for our own requests, not to be taken for the closing of a chat
+    private int ownLeaves = 0;
 
     /**
-     * ClientSession constructor
+     * ClientSession constructor, the signature manager is created once the algorithm is agreed with the server
      * @param username the username for the session
      */
-    public ClientSession(String username) throws NoSuchAlgorithmException, InvalidKeyException, RemoteException {
-        // Create client and signature manager
+    public ClientSession(String username) throws RemoteException {
         client = new IRCClient(username, this);
-        sm = new SignatureManager();
     }
 
     /**
      * Starts the client session, blocking.
-     * @param serverName the server to start the client session with
+     * @param serverName the server to start the client session with, an RMI registry name or "nio://host:port"
      * @return 0 if the session was closed gracefully, -1 in case a forced disconnection occurred
      * @throws RemoteException when the server becomes unreachable
      */
     public int start(String serverName) throws RemoteException, AlreadyBoundException, MalformedURLException {
         // Lookup remote server object
+        ClientTransport transport = ClientTransport.forAddress(serverName, client);
         try {
-            server = (IRCServerInterface) Naming.lookup(serverName);
-        } catch (MalformedURLException | NotBoundException | RemoteException e) {
+            server = transport.lookup();
+        } catch (IOException | NotBoundException e) {
             System.err.println("Unable to connect to server " + serverName + ".");
             return -1;
         }
 
-	// bind local client object
-        Naming.bind(client.getUsername(), client);
-
-	// connect to server
-        int seed = 0;
+	// connect to server, agreeing on a session key
         try {
-            seed = server.connect(client.getUsername(), sm.getPublicKey(), sm.sign(client.getUsername().getBytes()));
+            SignatureAlgorithm algorithm = negotiateAlgorithm();
+            // reuse the identity kept on disk, if any, instead of generating a key pair on every start
+            ClientKeyStore keyStore = ClientKeyStore.fromProperties();
+            sm = keyStore == null ? new SignatureManager(algorithm)
+                    : new SignatureManager(algorithm, keyStore.loadOrGenerate(client.getUsername(), algorithm));
+            PublicKey sessionKey = sm.startSession();
+            byte[] fingerprint = SessionHandshake.fingerprint(client.getUsername(), sessionKey);
+            SessionHandshake handshake = connectWithSession(transport, sessionKey, sm.sign(fingerprint));
+            if (handshake == null) {
+                System.err.println("Seed initialization error.");
+                return -1;
+            }
+            sm.completeSession(client.getUsername(), handshake);
+            sender = new SendPipeline(server, sm, client.getUsername(), text -> post(ClientEvent.notice(text)));
+            startLeaseRenewal();
         } catch (SignatureException | NoSuchAlgorithmException | InvalidKeyException e) {
             System.out.println("Unsupported ciphers.");
             return -1;
         }
-        if (seed == 0) {
-            System.err.println("Seed initialization error.");
-            return -1;
-        }
-        sm.setSeed(seed);
         System.out.println(server.getGreeting());
+        startStdinReader();
         try {
             while (lobbyMenuLoop() == 1)
                 ; // continue looping
@@ -81,6 +104,80 @@ public class ClientSession {
         return 0;
     }
 
+    /**
+     * Connects to the server agreeing on a session key and handing it the client's callback object.
+     * Servers that do not accept the callback object look the client up in the RMI registry, so for them the
+     * client is bound there first.
+     * @param transport the transport connected to the server
+     * @param sessionKey the client's ephemeral key agreement public key
+     * @param signedFingerprint the signed username+session key
+     * @return the server's half of the handshake, null if the connection was refused
+     */
+    private SessionHandshake connectWithSession(ClientTransport transport, PublicKey sessionKey, byte[] signedFingerprint)
+            throws RemoteException, AlreadyBoundException, MalformedURLException {
+        String username = client.getUsername();
+        try {
+            return server.connectWithSession(username, sm.getPublicKey(), sessionKey, signedFingerprint, transport.getCallback());
+        } catch (UnmarshalException | ServerException e) {
+            if (!RemoteCalls.isUnsupportedMethod(e))
+                throw e;
+        }
+        transport.register();
+        return server.connectWithSession(username, sm.getPublicKey(), sessionKey, signedFingerprint);
+    }
+
+    /**
+     * Picks the signature algorithm of the session: the one named by "irc.client.signature" (default ed25519) if
+     * the server accepts it, the server's favourite otherwise. Servers that cannot be asked only accept RSA.
+     * @return the signature algorithm
+     */
+    private SignatureAlgorithm negotiateAlgorithm() throws RemoteException {
+        SignatureAlgorithm preferred = SignatureAlgorithm.fromString(System.getProperty("irc.client.signature", "ed25519"));
+        ArrayList<String> accepted;
+        try {
+            accepted = server.getSignatureAlgorithms();
+        } catch (UnmarshalException | ServerException e) {
+            if (!RemoteCalls.isUnsupportedMethod(e))
+                throw e;
+            return SignatureAlgorithm.RSA; // the server predates the negotiation
+        }
+        ArrayList<SignatureAlgorithm> algorithms = SignatureAlgorithm.listFromString(String.join(",", accepted));
+        if (algorithms.isEmpty() || algorithms.contains(preferred))
+            return preferred;
+        return algorithms.get(0);
+    }
+
+    /**
+     * Renews the lease once and, if the server works with leases, keeps renewing it in background
+     * three times per lease period
+     */
+    private void startLeaseRenewal() throws RemoteException, SignatureException, NoSuchAlgorithmException, InvalidKeyException {
+        long leaseMillis = renewLease();
+        if (leaseMillis <= 0)
+            return; // the server polls its clients instead
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "lease-renewal");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                renewLease();
+            } catch (RemoteException | SignatureException | NoSuchAlgorithmException | InvalidKeyException ignored) {
+                // try again at the next period, the server removes us if the lease expires
+            }
+        }, leaseMillis / 3, leaseMillis / 3, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Renews the client's lease on the server
+     * @return the lease duration in milliseconds, -1 if the server does not use leases
+     */
+    private long renewLease() throws RemoteException, SignatureException, NoSuchAlgorithmException, InvalidKeyException {
+        String username = client.getUsername();
+        return server.renewLease(username, sm.signWithNonce((username + ":lease").getBytes()));
+    }
+
     /**
      * Prints the main lobby menu
      */
@@ -91,36 +188,78 @@ public class ClientSession {
         System.out.println("\t3. Join channel");
         System.out.println("\t4. Open private chat");
         System.out.println("\t5. Quit");
+        System.out.println("\t6. Search messages");
+    }
+
+    /**
+     * Asks the user for the words, channel, sender and age to look for, then prints the results page by page
+     */
+    private void searchMessages() throws IOException {
+        System.out.print("Words to look for: ");
+        String text = readLine();
+        System.out.print("Channel, empty for any [ ]: ");
+        String channel = readLine();
+        System.out.print("Sender, empty for anyone [ ]: ");
+        String sender = readLine();
+        System.out.print("Only the last N days, empty for no limit [ ]: ");
+        String days = readLine();
+        if (text == null || channel == null || sender == null || days == null)
+            return;
+        channel = channel.trim();
+        while (channel.startsWith("#"))
+            channel = channel.substring(1);
+        sender = sender.trim();
+        days = days.trim();
+        long since = 0;
+        try {
+            if (!days.isEmpty())
+                since = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(Long.parseLong(days));
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid number of days, searching all the messages.");
+        }
+        int pageSize = 20;
+        for (int offset = 0; ; offset += pageSize) {
+            SearchQuery query = new SearchQuery(text, channel.isEmpty() ? null : channel,
+                    sender.isEmpty() ? null : sender, since, 0, offset, pageSize);
+            ArrayList<ChatMessage> results = server.search(query);
+            if (results.isEmpty() && offset == 0)
+                System.out.println("No messages found.");
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+            for (ChatMessage m : results)
+                System.out.println("\t[" + format.format(new Date(m.getTimestamp())) + "] #" + m.getChannel()
+                        + " " + m.getSenderUsername() + ": " + m.getMessage());
+            if (results.size() < pageSize)
+                return;
+            System.out.print("More results? [y/N]: ");
+            String more = readLine();
+            if (more == null || !more.trim().equalsIgnoreCase("y"))
+                return;
+        }
     }
 
     /**
-     * Main loop for the session.
+     * Main loop for the session, handling the events until the user chooses an option.
+     * At the end of the input the client disconnects.
      */
     private int lobbyMenuLoop() throws IOException, SignatureException, NoSuchAlgorithmException, InvalidKeyException {
         printMenu();
         String option = null;
         while (option == null) {
-            // wait until stdin has something, or we join a private chat
-            while (!stdin.ready()) {
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException ignored) {}
-                if (client.hasRequestedPrivateChat()) {
-                    String target = client.getTargetUsername();
-                    client.resetPrivateChatData();
-                    chatLoop("private_" + target);
-                    client.resetNotifyLeave();
-                    printMenu();
+            ClientEvent event = nextEvent();
+            switch (event.getType()) {
+                case INPUT -> option = event.getText();
+                case MESSAGES -> printMessages(event.getMessages());
+                case NOTICE -> System.out.println(event.getText());
+                case INVITE -> {
+                    if (answerInvite(event)) {
+                        chatLoop("private_" + event.getText());
+                        printMenu();
+                    }
                 }
+                // already in the lobby, the notification of a chat we left
+                case LEAVE -> ownLeaves = Math.max(0, ownLeaves - 1);
+                case END_OF_INPUT -> option = "5";
             }
-
-            lockStdin();
-            try {
-                if (stdin.ready()) {
-                    option = stdin.readLine();
-                }
-            } catch (IOException ignored) {}
-            unlockStdin();
         }
         switch (option) {
             case "1":
@@ -137,13 +276,14 @@ public class ClientSession {
                 break;
             case "3":
                 System.out.print("Type the channel you want to join or q to exit [q]:");
-                String channelName = stdin.readLine();
+                String channelName = readLine();
+                if (channelName == null)
+                    break;
                 while(channelName.startsWith("#"))
                     channelName = channelName.substring(1, channelName.length()-1);
                 if (!channelName.equals("q")) {
                     byte[] signedFingerprint = sm.signWithNonce((client.getUsername() + channelName).getBytes());
                     int ret = server.joinChannel(client.getUsername(), channelName, signedFingerprint);
-                    client.resetNotifyLeave();
                     if (ret == 0)
                         chatLoop(channelName);
                     else {
@@ -153,12 +293,13 @@ public class ClientSession {
                 break;
             case "4":
                 System.out.print("Type the user you want to start a private chat with or q to exit [q]: ");
-                String targetUsername = stdin.readLine();
+                String targetUsername = readLine();
+                if (targetUsername == null)
+                    break;
                 System.out.println("Waiting for " + targetUsername + "...");
                 if (!targetUsername.equals("q")) {
                     byte[] signedFingerprint = sm.signWithNonce((client.getUsername() + targetUsername).getBytes());
                     int ret = server.joinPrivateChat(client.getUsername(), targetUsername, signedFingerprint);
-                    client.resetNotifyLeave();
                     switch (ret) {
                         case 0:
                             chatLoop("private_" + client.getUsername());
@@ -176,8 +317,13 @@ public class ClientSession {
                 }
                 break;
             case "5":
-                server.disconnect(client.getUsername(), sm.sign(client.getUsername().getBytes()));
+                flushSends();
+                sender.close();
+                server.disconnect(client.getUsername(), sm.signWithNonce(client.getUsername().getBytes()));
                 return 0;
+            case "6":
+                searchMessages();
+                break;
             default:
                 System.out.println("Unrecognized option, please retry.");
         }
@@ -185,51 +331,185 @@ public class ClientSession {
     }
 
     /**
-     * Main loop to invoke when entering any chat
+     * Main loop to invoke when entering any chat, handling the events until the user quits or the chat is closed
      * @param channel the channel on which we are writing
      */
     private void chatLoop(String channel) throws SignatureException, NoSuchAlgorithmException, InvalidKeyException, IOException {
         System.out.println("Joined channel " + channel + ". Write a message, press enter to send. Send \":q\" to quit.");
-        // read stdin
-        String msg = "";
-        while (!msg.equals(":q")) {
-            if (!msg.isEmpty())
-                server.sendMessage(client.getUsername(), channel, msg, sm.signWithNonce(msg.getBytes()));
-            while (!stdin.ready()) {
-                try {
-                    Thread.sleep(100);
-                    if (client.recievedNotifyLeave()) {
-                        client.resetNotifyLeave();
+        while (true) {
+            ClientEvent event = nextEvent();
+            switch (event.getType()) {
+                case INPUT -> {
+                    String msg = event.getText();
+                    if (msg.equals(":q")) {
+                        leaveChannel(channel);
+                        return;
+                    }
+                    if (!msg.isEmpty())
+                        submit(channel, msg);
+                }
+                case MESSAGES -> printMessages(event.getMessages());
+                case NOTICE -> System.out.println(event.getText());
+                // only the clients in the lobby can be invited
+                case INVITE -> event.getAnswer().complete(false);
+                case LEAVE -> {
+                    if (ownLeaves > 0) {
+                        ownLeaves--;
+                    } else {
                         System.out.println("Channel closed. Leaving.");
-//                        server.leaveChannel(client.getUsername(), channel, sm.signWithNonce((client.getUsername() + channel).getBytes()));
                         return;
                     }
-                } catch (InterruptedException ignored) {}
+                }
+                case END_OF_INPUT -> {
+                    leaveChannel(channel);
+                    return;
+                }
             }
-            msg = stdin.readLine();
         }
-        client.resetNotifyLeave();
+    }
+
+    /**
+     * Leaves a chat
+     * @param channel the channel or private chat to leave
+     */
+    private void leaveChannel(String channel) throws SignatureException, NoSuchAlgorithmException, InvalidKeyException, IOException {
+        // the messages typed before quitting must reach the chat
+        flushSends();
+        // closing a private chat notifies both participants, us included
+        if (channel.startsWith("private_"))
+            ownLeaves++;
         server.leaveChannel(client.getUsername(), channel, sm.signWithNonce((client.getUsername() + channel).getBytes()));
     }
 
     /**
-     * Locks the standard input, blocking call.
+     * Queues a message on the send pipeline, without waiting for the server
+     * @param channel the channel on which we are writing
+     * @param msg the message
+     */
+    private void submit(String channel, String msg) throws InterruptedIOException {
+        try {
+            sender.submit(channel, msg);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while queueing a message");
+        }
+    }
+
+    /**
+     * Waits up to 10 seconds for the queued messages to be sent, and tells the user about the ones left
+     */
+    private void flushSends() throws InterruptedIOException {
+        try {
+            if (!sender.flush(10000))
+                System.out.println(sender.getPending() + " messages are still waiting to be sent.");
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while sending the queued messages");
+        }
+    }
+
+    /**
+     * Asks the user whether to accept a private chat invite, and answers the inviting client
+     * @param invite the invite event
+     * @return true if the chat was accepted in time
+     */
+    private boolean answerInvite(ClientEvent invite) throws InterruptedIOException {
+        if (invite.getAnswer().isDone())
+            return false; // expired while waiting in the queue
+        System.out.print("You have received a request to join a private chat by " + invite.getText() + ".\nDo you want to accept it? [y/N]: ");
+        String yesOrNo = readLine();
+        boolean response = yesOrNo != null && switch (yesOrNo.trim().toLowerCase()) {
+            case "y", "ye", "yes", "ya", "ys", "yeah" -> true;
+            default -> false;
+        };
+        if (!invite.getAnswer().complete(response)) {
+            System.out.println("The invite has expired.");
+            return false;
+        }
+        return response;
+    }
+
+    /**
+     * Queues an event for the session, called by the stdin reader and by the RMI callbacks
+     * @param event the event
+     */
+    public void post(ClientEvent event) {
+        events.add(event);
+    }
+
+    /**
+     * Starts the thread turning the lines typed by the user into events
+     */
+    private void startStdinReader() {
+        Thread reader = new Thread(() -> {
+            BufferedReader stdin = new BufferedReader(new InputStreamReader(System.in));
+            try {
+                String line;
+                while ((line = stdin.readLine()) != null)
+                    post(ClientEvent.input(line));
+            } catch (IOException e) {
+                System.err.println("Error while reading standard input.");
+            }
+            post(ClientEvent.endOfInput());
+        }, "stdin-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Waits for the next event, the deferred ones first
+     * @return the event
      */
-    public void lockStdin() {
-        stdinLock.lock();
+    private ClientEvent nextEvent() throws InterruptedIOException {
+        ClientEvent event = deferred.poll();
+        return event != null ? event : takeEvent();
     }
 
     /**
-     * Unlocks the standard input, blocking call.
+     * Waits for the next line typed by the user, printing the messages received meanwhile and deferring the other
+     * events to the loop that asked for the line
+     * @return the line, null at the end of the input
      */
-    public void unlockStdin() {
-        stdinLock.unlock();
+    private String readLine() throws InterruptedIOException {
+        while (true) {
+            ClientEvent event = takeEvent();
+            switch (event.getType()) {
+                case INPUT -> {
+                    return event.getText();
+                }
+                case END_OF_INPUT -> {
+                    return null;
+                }
+                case MESSAGES -> printMessages(event.getMessages());
+                case NOTICE -> System.out.println(event.getText());
+                case INVITE, LEAVE -> deferred.add(event);
+            }
+        }
+    }
+
+    /**
+     * Takes the next event from the queue, blocking. The end of the input is put back, so that every later
+     * call sees it too.
+     * @return the event
+     */
+    private ClientEvent takeEvent() throws InterruptedIOException {
+        ClientEvent event;
+        try {
+            event = events.take();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for an event");
+        }
+        if (event.getType() == ClientEvent.Type.END_OF_INPUT)
+            events.add(event);
+        return event;
     }
 
     /**
-     * Returns the BufferedReader associated to standard input.
+     * Prints received messages
+     * @param messages the messages, in delivery order
      */
-    public BufferedReader getScanner() {
-        return this.stdin;
+    private static void printMessages(List<ChatMessage> messages) {
+        StringBuilder sb = new StringBuilder();
+        for (ChatMessage m : messages)
+            sb.append(m.getSenderUsername()).append(" > ").append(m.getMessage()).append('\n');
+        System.out.print(sb);
     }
 }
@@ -0,0 +1,46 @@
+package client;
+
+import server.IRCServerInterface;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.rmi.AlreadyBoundException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+
+/**
+ * Connects a client to a server and makes the client reachable for the server's callbacks
+ */
+public interface ClientTransport {
+
+    /**
+     * Returns the transport matching a server address: "nio://host:port" selects the NIO transport,
+     * anything else is an RMI registry name
+     * @param address the server address
+     * @param client the local client object
+     * @return the transport
+     */
+    static ClientTransport forAddress(String address, IRCClientInterface client) {
+        if (address.startsWith(NioClientTransport.SCHEME))
+            return new NioClientTransport(address, client);
+        return new RmiClientTransport(address, client);
+    }
+
+    /**
+     * Connects to the server
+     * @return the remote server object
+     */
+    IRCServerInterface lookup() throws IOException, NotBoundException;
+
+    /**
+     * Returns the callback object to hand to the server when connecting
+     * @return the local client object, null if the transport carries the server's callbacks itself
+     */
+    IRCClientInterface getCallback();
+
+    /**
+     * Makes the client reachable by servers that look it up instead of receiving it when connecting,
+     * to be called before connecting to such a server
+     */
+    void register() throws RemoteException, AlreadyBoundException, MalformedURLException;
+}
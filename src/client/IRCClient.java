@@ -3,18 +3,22 @@ package client;
 import java.io.IOException;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class IRCClient extends UnicastRemoteObject implements IRCClientInterface {
+    private static final long INVITE_TIMEOUT_SECONDS = 60;
+
     private String username;
     private ClientSession session;
-    private boolean requestedPrivateChat = false;
-    private String requestedPrivateChatUsername = "";
-    private boolean notifiedLeaveChannel = false;
 
     /**
      * IRCClient constructor
      * @param username the client's chosen username
-     * @param session the session to which this client is related
+     * @param session the session to which this client is related, receiving the callbacks as events
      */
     public IRCClient(String username, ClientSession session) throws RemoteException {
         super();
@@ -22,15 +26,6 @@ public class IRCClient extends UnicastRemoteObject implements IRCClientInterface
         this.session = session;
     }
 
-    /**
-     * Returns true if some user has requested a private chat
-     * @return true if some other user has requested a private chat, false otherwise
-     */
-    public boolean hasRequestedPrivateChat() {
-        return requestedPrivateChat;
-    }
-
-
     /**
      * Sends a message to the client
      * @param senderUsername the sender of the message
@@ -38,30 +33,35 @@ public class IRCClient extends UnicastRemoteObject implements IRCClientInterface
      */
     @Override
     public void sendMessage(String senderUsername, String message) throws RemoteException {
-        System.out.println(senderUsername + " > " + message);
+        session.post(ClientEvent.messages(List.of(new ChatMessage(senderUsername, message, System.currentTimeMillis()))));
+    }
+
+    /**
+     * Sends a batch of messages to the client
+     * @param messages the messages, in delivery order
+     */
+    @Override
+    public void sendMessages(List<ChatMessage> messages) throws RemoteException {
+        session.post(ClientEvent.messages(messages));
     }
 
     /**
-     * Requests a private chat with the client
+     * Requests a private chat with the client and waits for the user's answer, refusing the chat if the user
+     * does not answer within a minute
      * @param username the username that requested the private chat
      * @return true if the client accepted the chat, false if the client rejected the chat
      */
     @Override
     public boolean requestPrivateChat(String username) throws IOException {
-        // grab scanner lock before printing
-        session.lockStdin();
-        System.out.print("You have received a request to join a private chat by " + username + ".\nDo you want to accept it? [y/N]: ");
-        boolean response;
-        String yesOrNo = session.getScanner().readLine();
-        response =  switch (yesOrNo.toLowerCase()) {
-            case "y", "ye", "yes", "ya", "ys", "yeah" -> true;
-            default -> false;
-        };
-        // raise interrupt
-        requestedPrivateChatUsername = username;
-        requestedPrivateChat = response;
-        session.unlockStdin();
-        return response;
+        CompletableFuture<Boolean> answer = new CompletableFuture<>();
+        session.post(ClientEvent.invite(username, answer));
+        try {
+            return answer.get(INVITE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            // the session drops the invite if it is answered later
+            answer.complete(false);
+            return false;
+        }
     }
 
     /**
@@ -69,7 +69,7 @@ public class IRCClient extends UnicastRemoteObject implements IRCClientInterface
      */
     @Override
     public void notifyLeave() throws RemoteException {
-        notifiedLeaveChannel = true;
+        session.post(ClientEvent.leave());
     }
 
     /**
@@ -80,35 +80,4 @@ public class IRCClient extends UnicastRemoteObject implements IRCClientInterface
     public String getUsername() {
         return username;
     }
-
-    /**
-     * Returns the username that requested the private chat
-     * @return the username
-     */
-    public String getTargetUsername() {
-        return requestedPrivateChatUsername;
-    }
-
-    /**
-     * Invoke this after entering a private chat
-     */
-    public void resetPrivateChatData() {
-        requestedPrivateChat = false;
-        requestedPrivateChatUsername = "";
-    }
-
-    /**
-     * Returns whether the client received a channel closing notification
-     * @return true if the client received a channel closing notification, false otherwise
-     */
-    public boolean recievedNotifyLeave() {
-        return notifiedLeaveChannel;
-    }
-
-    /**
-     * Invoke this after leaving a private chat
-     */
-    public void resetNotifyLeave() {
-        notifiedLeaveChannel = false;
-    }
 }
@@ -3,6 +3,7 @@ package client;
 import java.io.IOException;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.List;
 
 public interface IRCClientInterface extends Remote {
 
@@ -19,6 +20,16 @@ public interface IRCClientInterface extends Remote {
      */
     void sendMessage(String senderUsername, String message) throws RemoteException;
 
+    /**
+     * Sends a batch of messages to the client in a single call.
+     * Clients exported before this method existed do not answer it, the server then falls back to sendMessage.
+     * @param messages the messages, in delivery order
+     */
+    default void sendMessages(List<ChatMessage> messages) throws RemoteException {
+        for (ChatMessage m : messages)
+            sendMessage(m.getSenderUsername(), m.getMessage());
+    }
+
     /**
      * Requests a private chat with the client
      * @param username the username that requested the private chat
@@ -0,0 +1,96 @@
+package client;
+
+import server.IRCServerInterface;
+import transport.RpcEndpoint;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Connects to a server's NIO transport with a single TCP connection, carrying both the client's calls
+ * and the server's callbacks
+ */
+public class NioClientTransport implements ClientTransport {
+    public static final String SCHEME = "nio://";
+
+    private final String address;
+    private final IRCClientInterface client;
+    private Socket socket;
+
+    /**
+     * NioClientTransport constructor
+     * @param address the server address, "nio://host:port"
+     * @param client the local client object
+     */
+    public NioClientTransport(String address, IRCClientInterface client) {
+        this.address = address;
+        this.client = client;
+    }
+
+    /**
+     * Opens the connection and starts reading the server's frames in background
+     * @return a proxy of the remote server object
+     */
+    @Override
+    public IRCServerInterface lookup() throws IOException {
+        String hostPort = address.substring(SCHEME.length());
+        int colon = hostPort.lastIndexOf(':');
+        if (colon < 0)
+            throw new IOException("Missing port in " + address + ".");
+        socket = new Socket(hostPort.substring(0, colon), Integer.parseInt(hostPort.substring(colon + 1)));
+        socket.setTcpNoDelay(true);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        OutputStream out = socket.getOutputStream();
+
+        // callbacks such as requestPrivateChat wait for the user, never run them on the reader thread
+        ExecutorService callbacks = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "nio-callback");
+            t.setDaemon(true);
+            return t;
+        });
+        RpcEndpoint endpoint = new RpcEndpoint(IRCClientInterface.class, client, frame -> {
+            synchronized (out) {
+                out.write(frame);
+                out.flush();
+            }
+        }, callbacks);
+
+        Thread reader = new Thread(() -> {
+            try {
+                while (true) {
+                    int length = in.readInt();
+                    if (length <= 0 || length > RpcEndpoint.MAX_FRAME_LENGTH)
+                        throw new IOException("Invalid frame length " + length + ".");
+                    byte[] payload = new byte[length];
+                    in.readFully(payload);
+                    endpoint.onFrame(payload);
+                }
+            } catch (IOException e) {
+                endpoint.close();
+                try {
+                    socket.close();
+                } catch (IOException ignored) {}
+            }
+        }, "nio-reader");
+        reader.setDaemon(true);
+        reader.start();
+        return endpoint.proxy(IRCServerInterface.class);
+    }
+
+    /**
+     * The server calls the client back over the same connection, there is no callback object to hand over
+     * @return null
+     */
+    @Override
+    public IRCClientInterface getCallback() {
+        return null;
+    }
+
+    /**
+     * Nothing to do, the server calls the client back over the same connection
+     */
+    @Override
+    public void register() {}
+}
@@ -0,0 +1,44 @@
+package client;
+
+import server.IRCServerInterface;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.rmi.AlreadyBoundException;
+import java.rmi.Naming;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+
+/**
+ * Looks the server up in the RMI registry. The client's stub is handed to the server when connecting, the client
+ * is bound in the registry only for servers that still look it up there.
+ */
+public class RmiClientTransport implements ClientTransport {
+    private final String serverName;
+    private final IRCClientInterface client;
+
+    /**
+     * RmiClientTransport constructor
+     * @param serverName the name of the server in the registry
+     * @param client the local client object
+     */
+    public RmiClientTransport(String serverName, IRCClientInterface client) {
+        this.serverName = serverName;
+        this.client = client;
+    }
+
+    @Override
+    public IRCServerInterface lookup() throws IOException, NotBoundException {
+        return (IRCServerInterface) Naming.lookup(serverName);
+    }
+
+    @Override
+    public IRCClientInterface getCallback() {
+        return client;
+    }
+
+    @Override
+    public void register() throws RemoteException, AlreadyBoundException, MalformedURLException {
+        Naming.bind(client.getUsername(), client);
+    }
+}
@@ -0,0 +1,241 @@
+package client;
+
+import server.IRCServerInterface;
+import transport.RemoteCalls;
+
+import java.rmi.RemoteException;
+import java.rmi.ServerException;
+import java.rmi.UnmarshalException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Outbound message pipeline of a client: the typed messages are queued, then signed and sent in order by a worker
+ * thread, so that the user never waits for a round trip.
+ * The worker sends everything queued since its last call in a single sendMessages call, at most
+ * "irc.client.send.batch" messages (default 64), and reports the messages the server did not accept.
+ * The queue holds "irc.client.send.queue" messages (default 1024), submitting to a full queue waits for room.
+ * Only one call is in flight at a time: the server runs concurrent calls on separate threads without ordering them
+ * by sender, so several calls outstanding could reorder the messages of a chat. Batching everything queued during
+ * a round trip into the next call gives the throughput instead, as a call carries more messages the more the
+ * round trip lasts.
+ */
+public class SendPipeline implements Runnable {
+    private final IRCServerInterface server;
+    private final SignatureManager sm;
+    private final String username;
+    private final Consumer<String> errors;
+    private final ArrayBlockingQueue<Pending> queue;
+    private final int batchSize;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition drained = lock.newCondition();
+    private final Thread worker;
+    private long submitted = 0;
+    private long completed = 0;
+    private long rejected = 0;
+    private boolean legacyServer = false;
+
+    /**
+     * A message waiting to be sent
+     */
+    private static class Pending {
+        private final String channel;
+        private final String text;
+        private final long timestamp;
+
+        /**
+         * Pending constructor
+         * @param channel the channel to send the message to
+         * @param text the message
+         * @param timestamp the time the user typed the message
+         */
+        Pending(String channel, String text, long timestamp) {
+            this.channel = channel;
+            this.text = text;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * SendPipeline constructor, starts the worker thread
+     * @param server the remote server object
+     * @param sm the signature manager of the client
+     * @param username the username of the client
+     * @param errors receives a description of every message that could not be sent
+     */
+    public SendPipeline(IRCServerInterface server, SignatureManager sm, String username, Consumer<String> errors) {
+        this.server = server;
+        this.sm = sm;
+        this.username = username;
+        this.errors = errors;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, Integer.getInteger("irc.client.send.queue", 1024)));
+        this.batchSize = Math.max(1, Integer.getInteger("irc.client.send.batch", 64));
+        worker = new Thread(this, "send-pipeline");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Queues a message, waiting for room if the queue is full
+     * @param channel the channel to send the message to
+     * @param text the message
+     */
+    public void submit(String channel, String text) throws InterruptedException {
+        // count the message first, the worker may complete it as soon as it is queued
+        lock.lock();
+        try {
+            submitted++;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            queue.put(new Pending(channel, text, System.currentTimeMillis()));
+        } catch (InterruptedException e) {
+            lock.lock();
+            try {
+                submitted--;
+                drained.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Waits until every submitted message has been acknowledged or reported as failed
+     * @param timeoutMillis the maximum time to wait
+     * @return true if the pipeline is drained, false if the timeout expired
+     */
+    public boolean flush(long timeoutMillis) throws InterruptedException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        lock.lock();
+        try {
+            while (completed < submitted) {
+                if (remaining <= 0)
+                    return false;
+                remaining = drained.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the worker, the messages still queued are not sent
+     */
+    public void close() {
+        worker.interrupt();
+    }
+
+    /**
+     * Returns the number of messages submitted and not yet acknowledged
+     * @return the pending messages count
+     */
+    public long getPending() {
+        lock.lock();
+        try {
+            return submitted - completed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of messages the server did not accept or that could not be sent
+     * @return the failed messages count
+     */
+    public long getRejected() {
+        lock.lock();
+        try {
+            return rejected;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Worker loop: takes the queued messages in batches, signs and sends them
+     */
+    @Override
+    public void run() {
+        ArrayList<Pending> batch = new ArrayList<>(batchSize);
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, batchSize - 1);
+                int failures = send(batch);
+                lock.lock();
+                try {
+                    completed += batch.size();
+                    rejected += failures;
+                    drained.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException ignored) {
+            // closed
+        }
+    }
+
+    /**
+     * Signs and sends a batch, reporting the messages that failed
+     * @param batch the messages, in order
+     * @return the number of messages that failed
+     */
+    private int send(ArrayList<Pending> batch) {
+        ArrayList<ChatMessage> messages = new ArrayList<>(batch.size());
+        try {
+            for (Pending p : batch)
+                messages.add(new ChatMessage(username, p.channel, p.text, p.timestamp, sm.signWithNonce(p.text.getBytes())));
+        } catch (GeneralSecurityException e) {
+            errors.accept("Unable to sign " + batch.size() + " messages: " + e.getMessage());
+            return batch.size();
+        }
+        int[] statuses;
+        try {
+            statuses = deliver(messages);
+        } catch (RemoteException e) {
+            errors.accept("Server unreachable, " + batch.size() + " messages not sent.");
+            return batch.size();
+        }
+        int failures = 0;
+        for (int i = 0; i < statuses.length; i++) {
+            if (statuses[i] == 0)
+                continue;
+            failures++;
+            String reason = statuses[i] == -3 ? "signature verification failed" : "no such channel #" + batch.get(i).channel;
+            errors.accept("Message \"" + batch.get(i).text + "\" not sent: " + reason + ".");
+        }
+        return failures;
+    }
+
+    /**
+     * Sends the messages with a single sendMessages call, falling back to one call per message for servers
+     * that do not support it
+     * @param messages the signed messages
+     * @return the status of every message, 0 if it was accepted
+     */
+    private int[] deliver(ArrayList<ChatMessage> messages) throws RemoteException {
+        if (!legacyServer) {
+            try {
+                return server.sendMessages(messages);
+            } catch (UnmarshalException | ServerException e) {
+                if (!RemoteCalls.isUnsupportedMethod(e))
+                    throw e;
+                legacyServer = true;
+            }
+        }
+        for (ChatMessage m : messages)
+            server.sendMessage(m);
+        return new int[messages.size()];
+    }
+}
@@ -1,23 +1,46 @@
 package client;
 
+import server.SessionHandshake;
+import server.SignatureAlgorithm;
+
+import javax.crypto.Mac;
 import java.nio.ByteBuffer;
 import java.security.*;
-import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class SignatureManager {
+    private final SignatureAlgorithm algorithm;
     private Signature signature;
     private KeyPair keys;
-    private Random randomGenerator;
+    private AtomicLong sequence;
+    private KeyPair sessionKeys;
+    private Mac sessionMac;
 
     /**
-     * SignatureManager constructor
+     * SignatureManager constructor, with a 2048-bit RSA key pair
      */
     public SignatureManager() throws NoSuchAlgorithmException, InvalidKeyException {
+        this(SignatureAlgorithm.RSA);
+    }
+
+    /**
+     * SignatureManager constructor
+     * @param algorithm the algorithm of the key pair to generate
+     */
+    public SignatureManager(SignatureAlgorithm algorithm) throws NoSuchAlgorithmException, InvalidKeyException {
         // generate keypair and initialize signature object
-        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
-        generator.initialize(2048);
-        keys = generator.generateKeyPair();
-        signature = Signature.getInstance("SHA256withRSA");
+        this(algorithm, algorithm.generateKeyPair());
+    }
+
+    /**
+     * SignatureManager constructor, with an existing key pair
+     * @param algorithm the algorithm of the key pair
+     * @param keys the key pair, such as one loaded from a ClientKeyStore
+     */
+    public SignatureManager(SignatureAlgorithm algorithm, KeyPair keys) throws NoSuchAlgorithmException, InvalidKeyException {
+        this.algorithm = algorithm;
+        this.keys = keys;
+        signature = algorithm.newSignature();
         signature.initSign(keys.getPrivate());
     }
 
@@ -26,24 +49,67 @@ public class SignatureManager {
      * @param message the message to be signed
      * @return the signed message
      */
-    public byte[] sign(byte[] message) throws SignatureException, NoSuchAlgorithmException, InvalidKeyException {
+    public synchronized byte[] sign(byte[] message) throws SignatureException, NoSuchAlgorithmException, InvalidKeyException {
         signature.update(message);
         return signature.sign();
     }
 
     /**
-     * Signs a message with an appended nonce
+     * Signs a message with an appended nonce, the next request sequence number.
+     * Once a session is established the message is authenticated with HMAC-SHA256 instead of the key pair.
+     * The returned fingerprint is the 8 byte sequence number followed by the signature, the server accepts
+     * every sequence number once so signed requests can be sent without waiting for the previous ones.
      * @param message the message to be signed
      * @return the signed message
      */
     public byte[] signWithNonce(byte[] message) throws SignatureException, NoSuchAlgorithmException, InvalidKeyException {
-        byte[] nonce = new byte[8];
-        randomGenerator.nextBytes(nonce);
-        byte[] fullMessage = new byte[message.length + nonce.length];
+        long nonce = sequence.getAndIncrement();
+        byte[] fullMessage = new byte[message.length + 8];
         ByteBuffer bb = ByteBuffer.wrap(fullMessage);
         bb.put(message);
-        bb.put(nonce);
-        return this.sign(bb.array());
+        bb.putLong(nonce);
+        byte[] signed;
+        if (sessionMac != null) {
+            synchronized (this) {
+                signed = sessionMac.doFinal(bb.array());
+            }
+        } else {
+            signed = this.sign(bb.array());
+        }
+        ByteBuffer fingerprint = ByteBuffer.allocate(8 + signed.length);
+        fingerprint.putLong(nonce);
+        fingerprint.put(signed);
+        return fingerprint.array();
+    }
+
+    /**
+     * Generates the ephemeral key pair used to agree on a session key with the server
+     * @return the public key to send to the server
+     */
+    public PublicKey startSession() throws NoSuchAlgorithmException {
+        sessionKeys = SessionHandshake.generateKeyPair();
+        return sessionKeys.getPublic();
+    }
+
+    /**
+     * Derives the session key from the server's answer and initializes the nonce generator
+     * @param username the username of the client
+     * @param handshake the server's half of the handshake
+     */
+    public void completeSession(String username, SessionHandshake handshake) throws NoSuchAlgorithmException, InvalidKeyException {
+        Mac mac = Mac.getInstance(SessionHandshake.MAC_ALGORITHM);
+        mac.init(SessionHandshake.deriveSessionKey(sessionKeys.getPrivate(), handshake.getServerKey(), username));
+        sessionMac = mac;
+        sessionKeys = null;
+        setSeed(handshake.getSeed());
+    }
+
+    /**
+     * Returns the algorithm of the key pair
+     * @return the signature algorithm
+     */
+    public SignatureAlgorithm getAlgorithm() {
+        return algorithm;
     }
 
     /**
@@ -56,9 +122,9 @@ public class SignatureManager {
 
     /**
      * Initializes the nonce generator with the specified seed
-     * @param seed the seed to initialize the nonce generator with
+     * @param seed the seed to initialize the nonce generator with, the first request sequence number
      */
     public void setSeed(int seed) {
-        randomGenerator = new Random(seed);
+        sequence = new AtomicLong(Integer.toUnsignedLong(seed));
     }
 }
@@ -1,23 +1,42 @@
 package server;
 
+import client.ChatMessage;
 import client.IRCClientInterface;
 
-import java.rmi.RemoteException;
-import java.util.ArrayList;
-import java.util.Vector;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class Channel {
+    private static final String SERVER_SENDER = "*server*";
+
     private String name;
     private ConcurrentHashMap<String, IRCClientInterface> clients;
+    private MessageDispatcher dispatcher;
+    private ChannelHistory history;
+    // broadcasts share the read lock, a join takes the write lock so that the history it replays
+    // and the messages it receives afterwards neither overlap nor leave a gap
+    private final ReentrantReadWriteLock membershipLock = new ReentrantReadWriteLock();
+
+    /**
+     * Channel constructor, for a channel without history
+     * @param channelName the channel name
+     * @param dispatcher the dispatcher delivering the channel messages
+     */
+    public Channel(String channelName, MessageDispatcher dispatcher) {
+        this(channelName, dispatcher, null);
+    }
 
     /**
      * Channel constructor
      * @param channelName the channel name
+     * @param dispatcher the dispatcher delivering the channel messages
+     * @param history the history replayed to the joining clients, null to disable it
      */
-    public Channel(String channelName) {
+    Channel(String channelName, MessageDispatcher dispatcher, ChannelHistory history) {
         name = channelName;
         clients = new ConcurrentHashMap<>();
+        this.dispatcher = dispatcher;
+        this.history = history;
     }
 
     /**
@@ -37,34 +56,82 @@ public class Channel {
     }
 
     /**
-     * Broadcasts a message to all the clients in the channel except the sender
+     * Broadcasts a message to all the clients in the channel except the sender.
+     * The message is only enqueued on the recipients' delivery lanes, this call does not wait for the delivery.
+     * A single ChatMessage is built and shared by all the recipients, so its text is encoded once.
      * @param senderUsername the sender of the message
      * @param message the message to be sent
+     * @return the message as delivered to the clients
      */
-    public void sendMessage(String senderUsername, String message) {
-        Vector<String> usersRemaining = new Vector<>(clients.keySet());
-        usersRemaining.remove(senderUsername);
+    public ChatMessage sendMessage(String senderUsername, String message) {
+        return broadcast(senderUsername, senderUsername, message, true);
+    }
+
+    /**
+     * Broadcasts a server notice, such as a join or a leave, to all the clients in the channel except one.
+     * Notices are not kept in the history, so that member churn never pushes messages out of it.
+     * @param excludedUsername the client not receiving the notice, may be null
+     * @param message the notice
+     */
+    private void announce(String excludedUsername, String message) {
+        broadcast(SERVER_SENDER, excludedUsername, message, false);
+    }
 
-        while (!usersRemaining.isEmpty()) {
-            ArrayList<String> toRemove = new ArrayList<>();
-            try {
-                for (String username : usersRemaining) {
-                    toRemove.add(username);
-                    clients.get(username).sendMessage(senderUsername, message);
-                }
-            } catch (RemoteException ignored) {}
-            usersRemaining.removeAll(toRemove);
+    /**
+     * Enqueues a message on the delivery lanes of the channel members
+     * @param senderUsername the sender of the message
+     * @param excludedUsername the client not receiving the message, may be null
+     * @param message the message to be sent
+     * @param keep whether the message is appended to the history
+     * @return the message as delivered to the clients
+     */
+    private ChatMessage broadcast(String senderUsername, String excludedUsername, String message, boolean keep) {
+        long start = System.nanoTime();
+        ChatMessage chatMessage = new ChatMessage(senderUsername, message, System.currentTimeMillis());
+        int recipients;
+        membershipLock.readLock().lock();
+        try {
+            if (keep && history != null)
+                history.append(chatMessage);
+            recipients = excludedUsername != null && clients.containsKey(excludedUsername) ? clients.size() - 1 : clients.size();
+            // forEach does not allocate an entry per member, unlike iterating over the entry set
+            clients.forEach((username, client) -> {
+                if (!username.equals(excludedUsername))
+                    dispatcher.deliver(username, client, chatMessage);
+            });
+        } finally {
+            membershipLock.readLock().unlock();
         }
+        dispatcher.recordBroadcast(start, recipients);
+        return chatMessage;
     }
 
     /**
-     * Adds a client to the channel
+     * Adds a client to the channel, replaying the channel history to it as a single batch, then announces
+     * the join to the other members
      * @param username the username of the client to be added
      * @param clientInterface the remote client object
      */
     public void addClient(String username, IRCClientInterface clientInterface) {
-        sendMessage("*server*", "User " + username + " joined the channel.");
-        clients.put(username, clientInterface);
+        membershipLock.writeLock().lock();
+        try {
+            if (history != null)
+                dispatcher.deliverAll(username, clientInterface, history.replay(System.currentTimeMillis()));
+            clients.put(username, clientInterface);
+        } finally {
+            membershipLock.writeLock().unlock();
+        }
+        announce(username, "User " + username + " joined the channel.");
+    }
+
+
+    /**
+     * Adds a message to the channel history without broadcasting it, used to restore the history after a restart
+     * @param message the message
+     */
+    void restoreHistory(ChatMessage message) {
+        if (history != null)
+            history.append(message);
     }
 
     /**
@@ -75,7 +142,7 @@ public class Channel {
     public IRCClientInterface removeClient(String username) {
         IRCClientInterface ret = clients.get(username);
         clients.remove(username);
-        sendMessage("*server*", "User " + username + " left the channel.");
+        announce(null, "User " + username + " left the channel.");
         return ret;
     }
 }
@@ -0,0 +1,146 @@
+package server;
+
+import client.ChatMessage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Bounded history of the last messages of a channel, replayed to the clients joining it.
+ * Messages are stored as encoded records in a fixed-size ring buffer, optionally off-heap, so that a busy channel
+ * holds at most "irc.history.bytes" bytes and "irc.history.messages" messages whatever the traffic.
+ * Record layout: timestamp (8 bytes), sender length (2 bytes), sender, text length (4 bytes), text; a record
+ * may wrap around the end of the buffer.
+ */
+class ChannelHistory {
+    private static final int HEADER_LENGTH = 8 + 2 + 4;
+
+    private final ByteBuffer buffer;
+    private final long[] starts;
+    private final long maxAgeMillis;
+    private final byte[] header = new byte[HEADER_LENGTH];
+    private int first = 0;
+    private int count = 0;
+    private long end = 0;
+
+    /**
+     * ChannelHistory constructor
+     * @param capacityBytes the size of the ring buffer
+     * @param maxMessages the maximum number of messages kept
+     * @param maxAgeMillis messages older than this are not replayed, 0 to replay them regardless of their age
+     * @param direct whether the buffer is allocated off-heap
+     */
+    ChannelHistory(int capacityBytes, int maxMessages, long maxAgeMillis, boolean direct) {
+        buffer = direct ? ByteBuffer.allocateDirect(capacityBytes) : ByteBuffer.allocate(capacityBytes);
+        starts = new long[maxMessages];
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Creates a history configured by the "irc.history.bytes" (default 64 KiB), "irc.history.messages" (default 100),
+     * "irc.history.seconds" (default 0, no age limit) and "irc.history.direct" system properties
+     * @return the history, null if it is disabled by a size or message count of 0
+     */
+    static ChannelHistory fromProperties() {
+        int bytes = Integer.getInteger("irc.history.bytes", 64 * 1024);
+        int messages = Integer.getInteger("irc.history.messages", 100);
+        if (bytes <= 0 || messages <= 0)
+            return null;
+        return new ChannelHistory(bytes, messages, Long.getLong("irc.history.seconds", 0) * 1000,
+                Boolean.getBoolean("irc.history.direct"));
+    }
+
+    /**
+     * Appends a message, evicting the oldest ones to make room for it.
+     * A message larger than the whole buffer is not kept.
+     * @param message the message
+     */
+    synchronized void append(ChatMessage message) {
+        byte[] sender = message.getSenderUsername().getBytes(StandardCharsets.UTF_8);
+        byte[] text = message.getMessage().getBytes(StandardCharsets.UTF_8);
+        if (sender.length > Short.MAX_VALUE)
+            return;
+        long length = HEADER_LENGTH + sender.length + (long) text.length;
+        if (length > buffer.capacity())
+            return;
+        while (count > 0 && (count == starts.length || end + length - starts[first] > buffer.capacity())) {
+            first = (first + 1) % starts.length;
+            count--;
+        }
+        ByteBuffer.wrap(header).putLong(message.getTimestamp()).putShort((short) sender.length).putInt(text.length);
+        starts[(first + count) % starts.length] = end;
+        count++;
+        long position = end;
+        position = put(position, header);
+        position = put(position, sender);
+        end = put(position, text);
+    }
+
+    /**
+     * Returns the messages to replay to a joining client, oldest first
+     * @param now the current time in milliseconds since the epoch
+     * @return the messages newer than the age limit
+     */
+    synchronized ArrayList<ChatMessage> replay(long now) {
+        ArrayList<ChatMessage> messages = new ArrayList<>(count);
+        ByteBuffer headerView = ByteBuffer.wrap(header);
+        for (int i = 0; i < count; i++) {
+            long position = get(starts[(first + i) % starts.length], header);
+            long timestamp = headerView.getLong(0);
+            if (maxAgeMillis > 0 && now - timestamp > maxAgeMillis)
+                continue;
+            byte[] sender = new byte[headerView.getShort(8)];
+            byte[] text = new byte[headerView.getInt(10)];
+            position = get(position, sender);
+            get(position, text);
+            messages.add(new ChatMessage(new String(sender, StandardCharsets.UTF_8),
+                    new String(text, StandardCharsets.UTF_8), timestamp));
+        }
+        return messages;
+    }
+
+    /**
+     * Returns the number of messages kept
+     * @return the message count
+     */
+    synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Returns the number of bytes used by the kept messages
+     * @return the used bytes
+     */
+    synchronized long getUsedBytes() {
+        return count == 0 ? 0 : end - starts[first];
+    }
+
+    /**
+     * Copies bytes into the ring at an absolute position
+     * @param position the absolute position, reduced modulo the capacity
+     * @param src the bytes
+     * @return the position following the bytes
+     */
+    private long put(long position, byte[] src) {
+        int index = (int) (position % buffer.capacity());
+        int head = Math.min(src.length, buffer.capacity() - index);
+        buffer.put(index, src, 0, head);
+        buffer.put(0, src, head, src.length - head);
+        return position + src.length;
+    }
+
+    /**
+     * Copies bytes out of the ring from an absolute position
+     * @param position the absolute position, reduced modulo the capacity
+     * @param dst the destination, filled entirely
+     * @return the position following the bytes
+     */
+    private long get(long position, byte[] dst) {
+        int index = (int) (position % buffer.capacity());
+        int head = Math.min(dst.length, buffer.capacity() - index);
+        buffer.get(index, dst, 0, head);
+        buffer.get(0, dst, head, dst.length - head);
+        return position + dst.length;
+    }
+}
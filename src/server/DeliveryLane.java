@@ -0,0 +1,240 @@
+package server;
+
+import client.ChatMessage;
+import client.IRCClientInterface;
+import transport.RemoteCalls;
+
+import java.rmi.RemoteException;
+import java.rmi.ServerException;
+import java.rmi.UnmarshalException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded outbound message queue of a single client.
+ * Messages are delivered in order, at most one task per lane is running at any time.
+ * Pending messages are coalesced into batches delivered with a single sendMessages call.
+ * The first failed delivery closes the lane, dropping the pending messages, and has the client removed.
+ * The queued messages are shared between the lanes of a broadcast and must not be modified.
+ */
+class DeliveryLane implements Runnable {
+    private final String username;
+    private final IRCClientInterface client;
+    private final MessageDispatcher dispatcher;
+    private final ArrayDeque<ChatMessage> queue = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final AtomicLong dropped = new AtomicLong();
+    private boolean scheduled = false;
+    private boolean closed = false;
+    private volatile boolean legacyClient = false;
+
+    /**
+     * DeliveryLane constructor
+     * @param username the username of the recipient
+     * @param client the remote client object of the recipient
+     * @param dispatcher the dispatcher owning the lane, scheduling it and notified on overflow
+     */
+    DeliveryLane(String username, IRCClientInterface client, MessageDispatcher dispatcher) {
+        this.username = username;
+        this.client = client;
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Returns the remote client object this lane delivers to
+     * @return the client
+     */
+    IRCClientInterface getClient() {
+        return client;
+    }
+
+    /**
+     * Enqueues a message and schedules the lane if it is idle.
+     * When the queue is full the dispatcher's overflow policy is applied.
+     * @param message the message, may be shared with other lanes
+     */
+    void enqueue(ChatMessage message) {
+        boolean submit;
+        boolean overflow;
+        lock.lock();
+        try {
+            if (closed)
+                return;
+            overflow = add(message);
+            submit = markScheduled();
+        } finally {
+            lock.unlock();
+        }
+        afterEnqueue(overflow ? 1 : 0, submit);
+    }
+
+    /**
+     * Enqueues several messages at once, so that they are delivered together in the next batch
+     * @param messages the messages, in delivery order
+     */
+    void enqueueAll(List<ChatMessage> messages) {
+        boolean submit;
+        int overflows = 0;
+        lock.lock();
+        try {
+            if (closed)
+                return;
+            for (ChatMessage m : messages)
+                if (add(m))
+                    overflows++;
+            submit = markScheduled();
+        } finally {
+            lock.unlock();
+        }
+        afterEnqueue(overflows, submit);
+    }
+
+    /**
+     * Adds a message to the queue, applying the overflow policy if it is full. Must hold the lock.
+     * @param message the message
+     * @return true if the queue overflowed
+     */
+    private boolean add(ChatMessage message) {
+        if (closed)
+            return false;
+        if (queue.size() < dispatcher.getQueueCapacity()) {
+            queue.add(message);
+            return false;
+        }
+        switch (dispatcher.getOverflowPolicy()) {
+            case DROP_OLDEST -> {
+                queue.poll();
+                queue.add(message);
+            }
+            case DROP_NEWEST -> {}
+            case DISCONNECT -> {
+                closed = true;
+                queue.clear();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Marks an idle lane as scheduled. Must hold the lock.
+     * @return true if the lane has to be submitted
+     */
+    private boolean markScheduled() {
+        if (closed || scheduled)
+            return false;
+        scheduled = true;
+        return true;
+    }
+
+    /**
+     * Reports the overflows and submits the lane, outside of the lock
+     * @param overflows the number of messages that overflowed the queue
+     * @param submit whether the lane has to be submitted
+     */
+    private void afterEnqueue(int overflows, boolean submit) {
+        for (int i = 0; i < overflows; i++) {
+            dropped.incrementAndGet();
+            dispatcher.onOverflow(this);
+        }
+        if (submit)
+            dispatcher.schedule(this);
+    }
+
+    /**
+     * Drains the queue in batches until it is empty
+     */
+    @Override
+    public void run() {
+        int batchSize = dispatcher.getBatchSize();
+        while (true) {
+            ArrayList<ChatMessage> batch;
+            lock.lock();
+            try {
+                if (queue.isEmpty()) {
+                    scheduled = false;
+                    return;
+                }
+                // sized to the queue, a broadcast must not allocate more than needed per recipient
+                batch = new ArrayList<>(Math.min(batchSize, queue.size()));
+                ChatMessage m;
+                while (batch.size() < batchSize && (m = queue.poll()) != null)
+                    batch.add(m);
+            } finally {
+                lock.unlock();
+            }
+            try {
+                deliver(batch);
+            } catch (RemoteException e) {
+                // the client is unreachable, do not fail again on every queued message
+                close();
+                dispatcher.onDeliveryFailure(this);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Delivers a batch, falling back to one call per message for clients that do not support batches.
+     * Single messages go through sendMessages too, so that their pre-encoded text is reused.
+     * @param batch the messages to deliver
+     */
+    private void deliver(ArrayList<ChatMessage> batch) throws RemoteException {
+        if (!legacyClient) {
+            try {
+                client.sendMessages(batch);
+                return;
+            } catch (UnmarshalException | ServerException e) {
+                if (!RemoteCalls.isUnsupportedMethod(e))
+                    throw e;
+                legacyClient = true;
+            }
+        }
+        for (ChatMessage m : batch)
+            client.sendMessage(m.getSenderUsername(), m.getMessage());
+    }
+
+    /**
+     * Discards all the pending messages and stops accepting new ones
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            queue.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of messages waiting to be delivered
+     * @return the queue depth
+     */
+    int getQueueDepth() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of messages dropped because the queue was full
+     * @return the dropped messages count
+     */
+    long getDroppedMessages() {
+        return dropped.get();
+    }
+
+    /**
+     * Returns the recipient of this lane
+     * @return the username
+     */
+    String getUsername() {
+        return username;
+    }
+}
@@ -2,43 +2,97 @@ package server;
 
 import client.IRCClientInterface;
 
-import java.rmi.RemoteException;
-import java.util.ArrayList;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Periodically probes every connected client and removes the unreachable ones.
+ * Probes run concurrently on their own executor, at most "irc.liveness.concurrency" at a time, and are
+ * spread over the first half of the period instead of being sent in a single burst.
+ * A client that does not answer within "irc.liveness.timeout.ms" is considered disconnected and removed, but its
+ * probe keeps counting against the concurrency until the remote call returns, so hung hosts never hold more than
+ * "irc.liveness.concurrency" threads and calls. Clients that could not be probed before the end of the period,
+ * because every slot is held by a hung call, are left to the next sweep.
+ */
 public class DisconnectDetector implements Runnable {
     private IRCServer server;
+    private final long periodMillis;
+    private final long probeTimeoutMillis = Long.getLong("irc.liveness.timeout.ms", 5000);
+    private final int maxInFlight = Math.max(1, Integer.getInteger("irc.liveness.concurrency", 256));
+    private final Semaphore inFlight = new Semaphore(maxInFlight);
+    // a probe is only submitted once it holds a slot, so a thread per slot never makes a probe wait in the queue
+    private final ExecutorService executor = ServerExecutors.newCallbackExecutor("irc-probe", maxInFlight);
+    private final ExecutorService evictionExecutor = ServerExecutors.newCallbackExecutor("irc-evict", 4);
+    private volatile long lastSweepMillis = 0;
+    private final OperationMetrics sweepMetrics = new OperationMetrics("liveness-sweep");
+    private volatile int lastSweepClients = 0;
+    private final AtomicInteger evictions = new AtomicInteger();
 
     /**
      * DisconnectDetector constructor
      * @param server the server on which the detector operates
      */
     public DisconnectDetector(IRCServer server) {
+        this(server, 20000);
+    }
+
+    /**
+     * DisconnectDetector constructor
+     * @param server the server on which the detector operates
+     * @param periodMillis the interval between two sweeps, the probes are spread over its first half
+     */
+    public DisconnectDetector(IRCServer server, long periodMillis) {
         this.server = server;
+        this.periodMillis = periodMillis;
     }
 
     /**
-     * Checks a list of clients and removes the disconnected ones
-     * @param clients the list of clients to be checked
+     * Collects the clients in the lobby, in the channels and in the private chats
+     * @return the clients to be checked
      */
-    private void checkClients(ConcurrentHashMap<String, IRCClientInterface> clients) {
-        ArrayList<String> clientsToCheck = new ArrayList<>(clients.keySet());
-        while (!clientsToCheck.isEmpty()) {
-            ArrayList<String> checkedClients = new ArrayList<>();
-            String lastUser = "";
-            try {
-                for (String user : clientsToCheck) {
-                    lastUser = user;
-                    checkedClients.add(user);
-                    clients.get(user).getUsername();
-                }
-            } catch (RemoteException e) {
-                // remove client from lobby
-                server.removeClient(lastUser);
-            }
-            // remove all checked clients from the list and restart the check with the remaining ones
-            clientsToCheck.removeAll(checkedClients);
-        }
+    private HashMap<String, IRCClientInterface> collectClients() {
+        HashMap<String, IRCClientInterface> clients = new HashMap<>(server.getClientsInLobby());
+        for (Channel c : server.getChannels())
+            clients.putAll(c.getClients());
+        for (Channel c : server.getPrivateChats())
+            clients.putAll(c.getClients());
+        return clients;
+    }
+
+    /**
+     * Probes a client, removing it if it does not answer before the deadline.
+     * The slot of the probe, acquired by the caller, is released when the remote call returns.
+     * @param username the username of the client
+     * @param client the remote client object
+     * @param done counted down once the outcome of the probe is known
+     * @param evicted incremented if the client is removed
+     */
+    private void probe(String username, IRCClientInterface client, CountDownLatch done, AtomicInteger evicted) {
+        CompletableFuture.runAsync(() -> {
+                    try {
+                        client.getUsername();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    } finally {
+                        inFlight.release();
+                    }
+                }, executor)
+                .orTimeout(probeTimeoutMillis, TimeUnit.MILLISECONDS)
+                .whenCompleteAsync((ignored, failure) -> {
+                    // do not remove a client that reconnected with the same username in the meantime
+                    if (failure != null && server.getClient(username) == client) {
+                        server.removeClient(username);
+                        evicted.incrementAndGet();
+                    }
+                    done.countDown();
+                }, evictionExecutor);
     }
 
     /**
@@ -46,24 +100,67 @@ public class DisconnectDetector implements Runnable {
      */
     @Override
     public void run() {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(periodMillis);
+        HashMap<String, IRCClientInterface> clients = collectClients();
+        CountDownLatch done = new CountDownLatch(clients.size());
+        AtomicInteger evicted = new AtomicInteger();
+        long pauseNanos = clients.isEmpty() ? 0 : TimeUnit.MILLISECONDS.toNanos(periodMillis / 2) / clients.size();
+        int submitted = 0;
 
-        // Check disconnected users in lobby
-        ConcurrentHashMap<String, IRCClientInterface> clients = new ConcurrentHashMap<>(server.getClientsInLobby());
-        checkClients(clients);
-        clients.clear();
+        try {
+            for (Map.Entry<String, IRCClientInterface> e : clients.entrySet()) {
+                if (!inFlight.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS))
+                    break; // every slot is held by a hung call, the remaining clients wait for the next sweep
+                probe(e.getKey(), e.getValue(), done, evicted);
+                if (++submitted < clients.size())
+                    LockSupport.parkNanos(pauseNanos);
+            }
+            // the sweep ends with its period, so that it never overlaps the next one
+            done.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (submitted < clients.size())
+            ServerLog.warn("Liveness sweep could only probe {} of {} clients, the probe slots are held by unanswered calls.",
+                    submitted, clients.size());
 
-        // Check disconnected users in channels
-        ArrayList<Channel> channels = new ArrayList<>(server.getChannels());
-        for (Channel c : channels)
-            clients.putAll(c.getClients());
-        checkClients(clients);
-        clients.clear();
+        lastSweepMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        sweepMetrics.record(start);
+        lastSweepClients = submitted;
+        evictions.addAndGet(evicted.get());
+        ServerLog.info("Liveness sweep probed {} clients in {} ms, {} disconnected.", submitted, lastSweepMillis, evicted.get());
+    }
 
-        // Check disconnected users in private chats
-        ArrayList<Channel> privateChats = new ArrayList<>(server.getPrivateChats());
-        for (Channel c : privateChats)
-            clients.putAll(c.getClients());
-        checkClients(clients);
-        clients.clear();
+    /**
+     * Returns the count, rate and duration histogram of the sweeps
+     * @return the sweep metrics
+     */
+    public OperationMetrics getSweepMetrics() {
+        return sweepMetrics;
+    }
+
+    /**
+     * Returns the duration of the last sweep
+     * @return the duration in milliseconds
+     */
+    public long getLastSweepMillis() {
+        return lastSweepMillis;
+    }
+
+    /**
+     * Returns the number of clients probed by the last sweep
+     * @return the number of clients
+     */
+    public int getLastSweepClients() {
+        return lastSweepClients;
+    }
+
+    /**
+     * Returns the number of clients removed by the detector since the server started
+     * @return the evictions count
+     */
+    public int getEvictions() {
+        return evictions.get();
     }
-}
\ No newline at end of file
+}
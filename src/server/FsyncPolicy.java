@@ -0,0 +1,29 @@
+package server;
+
+/**
+ * When the message log forces its writes to the disk
+ */
+public enum FsyncPolicy {
+    /** After every message */
+    PER_MESSAGE,
+    /** After every batch of messages written by the log writer */
+    BATCH,
+    /** At most once per interval */
+    INTERVAL;
+
+    /**
+     * Parses a policy name such as "per-message", "batch" or "interval"
+     * @param name the policy name
+     * @return the policy, INTERVAL if the name is null or unknown
+     */
+    public static FsyncPolicy fromString(String name) {
+        if (name == null)
+            return INTERVAL;
+        try {
+            return valueOf(name.trim().toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            ServerLog.warn("Unknown fsync policy {}, using interval.", name);
+            return INTERVAL;
+        }
+    }
+}
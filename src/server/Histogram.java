@@ -0,0 +1,117 @@
+package server;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative values with a relative precision of 12.5%.
+ * Values below 16 have their own bucket, larger values fall in one of 8 sub-buckets per power of two.
+ * Buckets are striped counters, so concurrent recordings do not contend.
+ */
+public class Histogram {
+    private static final int SUB_BUCKETS = 8;
+    private static final int LINEAR_LIMIT = 16;
+    private static final int BUCKETS = LINEAR_LIMIT + (63 - 4) * SUB_BUCKETS;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Histogram constructor
+     */
+    public Histogram() {
+        for (int i = 0; i < BUCKETS; i++)
+            buckets[i] = new LongAdder();
+    }
+
+    /**
+     * Records a value
+     * @param value the value, negative values are recorded as 0
+     */
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        buckets[bucketOf(value)].increment();
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Returns the number of recorded values
+     * @return the count
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the mean of the recorded values
+     * @return the mean, 0 if nothing was recorded
+     */
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * Returns the largest recorded value
+     * @return the maximum, 0 if nothing was recorded
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns an upper bound of the value below which a fraction of the recorded values fall
+     * @param quantile the fraction, between 0 and 1
+     * @return the upper bound of the bucket holding the quantile, 0 if nothing was recorded
+     */
+    public long getPercentile(double quantile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets[i].sum();
+            total += snapshot[i];
+        }
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return Math.min(upperBoundOf(i), getMax());
+        }
+        return getMax();
+    }
+
+    /**
+     * Returns the bucket of a value
+     * @param value the non-negative value
+     * @return the bucket index
+     */
+    static int bucketOf(long value) {
+        if (value < LINEAR_LIMIT)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - 4) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Returns the largest value of a bucket
+     * @param bucket the bucket index
+     * @return the upper bound
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket < LINEAR_LIMIT)
+            return bucket;
+        int exponent = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + 4;
+        long sub = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+        long lower = (1L << exponent) + (sub << (exponent - 3));
+        return lower + (1L << (exponent - 3)) - 1;
+    }
+}
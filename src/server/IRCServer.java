@@ -1,5 +1,6 @@
 package server;
 
+import client.ChatMessage;
 import client.IRCClientInterface;
 
 import java.io.IOException;
@@ -10,30 +11,75 @@ import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.security.*;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.Vector;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 public class IRCServer extends UnicastRemoteObject implements IRCServerInterface {
     private final String name;
-    private Vector<Channel> channels = new Vector<>();
+    private ConcurrentHashMap<String, Channel> channels = new ConcurrentHashMap<>();
     private ConcurrentHashMap<String, IRCClientInterface> clientsInLobby = new ConcurrentHashMap<>();
     private SignatureVerifier signatureVerifier = new SignatureVerifier();
-    private Vector<Channel> privateChats = new Vector<>();
-
+    private ConcurrentHashMap<String, Channel> privateChats = new ConcurrentHashMap<>();
+    // channel or private chat of every user that is not in the lobby
+    private ConcurrentHashMap<String, Channel> userLocations = new ConcurrentHashMap<>();
+    private MessageDispatcher dispatcher;
+    // connections of the clients of the NIO transport, closed when their client is removed
+    private final ConcurrentHashMap<IRCClientInterface, NioConnection> connections = new ConcurrentHashMap<>();
+    private DisconnectDetector disconnectDetector;
+    private LeaseManager leaseManager;
+    private MessageLog messageLog;
+    private MessageIndex messageIndex;
+    private final OperationMetrics connectMetrics = new OperationMetrics("connect");
+    private final OperationMetrics joinMetrics = new OperationMetrics("join");
+    private final OperationMetrics sendMetrics = new OperationMetrics("send");
+    private ServerMetrics metrics;
+    // notifications that do not decide the outcome of a request, sent without blocking the caller
+    private final ExecutorService callbackExecutor = ServerExecutors.newCallbackExecutor("irc-callback");
+    private PinningMonitor pinningMonitor;
 
     /**
-     * IRCServer constructor
+     * IRCServer constructor.
+     * Unreachable clients are detected by polling them every 20 seconds, unless the "irc.liveness" system property
+     * is "lease": then the clients renew a lease of "irc.lease.ms" milliseconds and are removed when it expires.
+     * Outbound callbacks run on the executors of ServerExecutors; with virtual threads, pinned threads are reported.
      * @param serverName the name of the server
      */
     public IRCServer(String serverName) throws RemoteException {
         super();
         this.name = serverName;
-        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-        scheduler.scheduleAtFixedRate(new DisconnectDetector(this), 20, 20, TimeUnit.SECONDS);
+        dispatcher = new MessageDispatcher(this, ServerExecutors.newCallbackExecutor("irc-delivery"));
+        if ("lease".equalsIgnoreCase(System.getProperty("irc.liveness"))) {
+            leaseManager = new LeaseManager(this, Long.getLong("irc.lease.ms", 30000), Long.getLong("irc.lease.tick.ms", 1000));
+            leaseManager.start();
+        } else {
+            ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(ServerExecutors.daemonThreadFactory("irc-liveness"));
+            disconnectDetector = new DisconnectDetector(this, TimeUnit.SECONDS.toMillis(20));
+            scheduler.scheduleAtFixedRate(disconnectDetector, 20, 20, TimeUnit.SECONDS);
+        }
+        try {
+            messageLog = MessageLog.fromProperties();
+        } catch (IOException e) {
+            ServerLog.warn("Couldn't open the message log: {}", e.getMessage());
+        }
+        messageIndex = MessageIndex.fromProperties();
+        metrics = new ServerMetrics(this);
+        if (!"false".equalsIgnoreCase(System.getProperty("irc.jmx")))
+            metrics.register();
+        if (ServerExecutors.isVirtual()) {
+            pinningMonitor = new PinningMonitor();
+            if (!pinningMonitor.start())
+                pinningMonitor = null;
+        }
+        if (messageLog != null)
+            Runtime.getRuntime().addShutdownHook(new Thread(messageLog::close, "irc-message-log-close"));
     }
 
     /**
@@ -45,34 +91,114 @@ public class IRCServer extends UnicastRemoteObject implements IRCServerInterface
      */
     @Override
     public int connect(String username, PublicKey publicKey, byte[] signedFingerprint) throws RemoteException {
-        System.out.println("[INFO] Received connection request from username: " + username + ".");
+        return connect(username, publicKey, signedFingerprint, null);
+    }
+
+    /**
+     * Procedure to connect to the server handing it the client's callback object, so that the client does not
+     * have to bind itself in the RMI registry
+     * @param username the username of the client
+     * @param publicKey the public key of the client
+     * @param signedFingerprint the signed username
+     * @param client the remote client object, looked up in the RMI registry if null
+     * @return 0 if the connection is successful, -1 otherwise
+     */
+    @Override
+    public int connect(String username, PublicKey publicKey, byte[] signedFingerprint, IRCClientInterface client) {
+        ServerLog.info("Received connection request from username: {}.", username);
 
         if (username == null || username.isEmpty())
             return -1;
+        long start = System.nanoTime();
+        int seed = registerClient(username, publicKey, username.getBytes(), signedFingerprint, client);
+        connectMetrics.record(start);
+        return seed;
+    }
+
+    /**
+     * Procedure to connect to the server agreeing on a session key.
+     * After the handshake the client authenticates its requests with HMAC-SHA256 instead of its signature key.
+     * @param username the username of the client
+     * @param publicKey the public key of the client
+     * @param sessionKey the client's ephemeral key agreement public key
+     * @param signedFingerprint the signed username+session key
+     * @return the server's half of the handshake, null if the connection was refused
+     */
+    @Override
+    public SessionHandshake connectWithSession(String username, PublicKey publicKey, PublicKey sessionKey, byte[] signedFingerprint) throws RemoteException {
+        return connectWithSession(username, publicKey, sessionKey, signedFingerprint, null);
+    }
+
+    /**
+     * Procedure to connect to the server agreeing on a session key and handing it the client's callback object,
+     * so that the client does not have to bind itself in the RMI registry
+     * @param username the username of the client
+     * @param publicKey the public key of the client
+     * @param sessionKey the client's ephemeral key agreement public key
+     * @param signedFingerprint the signed username+session key
+     * @param client the remote client object, looked up in the RMI registry if null
+     * @return the server's half of the handshake, null if the connection was refused
+     */
+    @Override
+    public SessionHandshake connectWithSession(String username, PublicKey publicKey, PublicKey sessionKey, byte[] signedFingerprint, IRCClientInterface client) {
+        ServerLog.info("Received session connection request from username: {}.", username);
 
+        if (username == null || username.isEmpty() || sessionKey == null)
+            return null;
+        long start = System.nanoTime();
+        try {
+            int seed = registerClient(username, publicKey, SessionHandshake.fingerprint(username, sessionKey), signedFingerprint, client);
+            if (seed == 0 || seed == -1)
+                return null;
+            KeyPair serverKeys = SessionHandshake.generateKeyPair();
+            signatureVerifier.setSessionKey(username, SessionHandshake.deriveSessionKey(serverKeys.getPrivate(), sessionKey, username));
+            return new SessionHandshake(seed, serverKeys.getPublic());
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            ServerLog.error("Session key agreement with {} failed.", username, e);
+            removeClient(username);
+            return null;
+        } finally {
+            connectMetrics.record(start);
+        }
+    }
+
+    /**
+     * Verifies the client's identity and adds it to the lobby
+     * @param username the username of the client
+     * @param publicKey the public key of the client
+     * @param fingerprint the message signed by the client
+     * @param signedFingerprint the signature of the fingerprint
+     * @param client the remote client object, looked up in the RMI registry if null
+     * @return the nonce seed if the connection is successful, -1 if it was refused, 0 in case of error
+     */
+    private int registerClient(String username, PublicKey publicKey, byte[] fingerprint, byte[] signedFingerprint, IRCClientInterface client) {
         // check if the same username is already connected
-        if (clientsInLobby.containsKey(username))
+        if (clientsInLobby.containsKey(username) || userLocations.containsKey(username))
             return -1;
-        for (Channel c : channels)
-            if (c.getClients().containsKey(username))
-                return -1;
 
+        if (!signatureVerifier.isAllowed(publicKey)) {
+            ServerLog.warn("Signature algorithm of {} not accepted: {}.", username, publicKey == null ? null : publicKey.getAlgorithm());
+            return -1;
+        }
         try {
             int seed = signatureVerifier.addSignature(username, publicKey);
-            if(!signatureVerifier.verifySignatureWithoutNonce(username, username.getBytes(), signedFingerprint)) {
+            if(!signatureVerifier.verifySignatureWithoutNonce(username, fingerprint, signedFingerprint)) {
                 signatureVerifier.removeSignature(username);
-                System.err.println("[INFO] Signature sanity check failed, unable to connect client" + username + ".");
+                ServerLog.warn("Signature sanity check failed, unable to connect client {}.", username);
                 return -1;
             }
 
             // Add client to lobby
-            IRCClientInterface client = (IRCClientInterface) Naming.lookup(username);
+            if (client == null)
+                client = (IRCClientInterface) Naming.lookup(username);
             clientsInLobby.put(username, client);
+            if (leaseManager != null)
+                leaseManager.renew(username);
             return seed;
         } catch (NotBoundException | MalformedURLException | RemoteException | NoSuchAlgorithmException |
                  InvalidKeyException e) {
             signatureVerifier.removeSignature(username);
-            e.printStackTrace();
+            ServerLog.error("Unable to connect client {}.", username, e);
             return 0;
         }
     }
@@ -84,12 +210,29 @@ public class IRCServer extends UnicastRemoteObject implements IRCServerInterface
      */
     public void disconnect(String username, byte[] signedFingerprint) throws RemoteException {
         if (signatureVerifier.verifySignature(username, username.getBytes(), signedFingerprint)) {
-            removeClient(username);
+            // the reply travels on the client's connection, the client closes it once disconnected
+            removeClient(username, false);
         }
     }
 
     /**
-     * Sends a message to a channel
+     * Renews the lease of a client, to be called periodically when the server runs in lease mode
+     * @param username the client renewing its lease
+     * @param signedFingerprint the signed username+":lease" string
+     * @return the lease duration in milliseconds, -1 if the server does not use leases or the renewal was refused
+     */
+    @Override
+    public long renewLease(String username, byte[] signedFingerprint) throws RemoteException {
+        if (leaseManager == null || getClient(username) == null)
+            return -1;
+        if (!signatureVerifier.verifySignature(username, (username + ":lease").getBytes(), signedFingerprint))
+            return -1;
+        leaseManager.renew(username);
+        return leaseManager.getLeaseMillis();
+    }
+
+    /**
+     * Sends a message to a channel, returns as soon as the message is enqueued for delivery
      * @param username the username of the sender
      * @param channel the channel to send the message to
      * @param message the message to be sent
@@ -97,57 +240,210 @@ public class IRCServer extends UnicastRemoteObject implements IRCServerInterface
      */
     @Override
     public void sendMessage(String username, String channel, String message, byte[] signedFingerprint) throws RemoteException {
-        System.out.println("[INFO] " + username + " sent message \"" + message + "\"" + " to channel \"" + channel + "\".");
-        if (signatureVerifier.verifySignature(username, message.getBytes(), signedFingerprint)) {
-            if (channel.startsWith("private_")) {
-                for (Channel c : privateChats)
-                    if (c.getName().equals(channel))
-                        c.sendMessage(username, message);
-            } else {
-                for (Channel c : channels)
-                    if (c.getName().equals(channel))
-                        c.sendMessage(username, message);
+        send(username, channel, message, signedFingerprint);
+    }
+
+    /**
+     * Sends a message to a channel, using the compact message envelope
+     * @param message the message, carrying the sender, the channel and the signature of the text
+     */
+    @Override
+    public void sendMessage(ChatMessage message) throws RemoteException {
+        send(message);
+    }
+
+    /**
+     * Sends several messages in one call, in order, and acknowledges each of them
+     * @param messages the messages, each carrying the sender, the channel and the signature of the text
+     * @return the status of every message: 0 if it was accepted, -1 if it is malformed or the channel does not
+     * exist, -3 if the signature verification failed
+     */
+    @Override
+    public int[] sendMessages(List<ChatMessage> messages) throws RemoteException {
+        int[] statuses = new int[messages.size()];
+        for (int i = 0; i < statuses.length; i++)
+            statuses[i] = send(messages.get(i));
+        return statuses;
+    }
+
+    /**
+     * Sends a message carried by an envelope
+     * @param message the message
+     * @return 0 in case of success, -1 if the message is malformed or the channel does not exist, -3 if the signature verification failed
+     */
+    private int send(ChatMessage message) {
+        if (message == null || message.getSenderUsername() == null || message.getChannel() == null || message.getMessage() == null)
+            return -1;
+        return send(message.getSenderUsername(), message.getChannel(), message.getMessage(), message.getAuthTag());
+    }
+
+    /**
+     * Verifies a message and enqueues it for delivery to the channel
+     * @param username the username of the sender
+     * @param channel the channel to send the message to
+     * @param message the message to be sent
+     * @param signedFingerprint the signature of the message
+     * @return 0 in case of success, -1 if the channel does not exist, -3 if the signature verification failed
+     */
+    private int send(String username, String channel, String message, byte[] signedFingerprint) {
+        ServerLog.info("{} sent message \"{}\" to channel \"{}\".", username, ServerLog.body(message), channel);
+        long start = System.nanoTime();
+        try {
+            if (!signatureVerifier.verifySignature(username, message.getBytes(), signedFingerprint)) {
+                ServerLog.warn("Signature verification failed during sendMessage from {}.", username);
+                return -3;
             }
-        } else {
-            System.err.println("SIGNATURE VERIFICATION FAILED DURING SENDMESSAGE");
+            Channel c = findChannel(channel);
+            if (c == null)
+                return -1;
+            ChatMessage sent = c.sendMessage(username, message);
+            if (messageLog != null)
+                messageLog.append(c.getName(), sent);
+            // private chats are not searchable
+            if (messageIndex != null && !isPrivateChat(c.getName()))
+                messageIndex.append(c.getName(), sent);
+            return 0;
+        } finally {
+            sendMetrics.record(start);
         }
     }
 
     /**
-     * Removes a client from the server
+     * Searches the messages of the public channels
+     * @param query the words to look for, the filters and the page wanted
+     * @return the matching messages, newest first, empty if the index is disabled
+     */
+    @Override
+    public ArrayList<ChatMessage> search(SearchQuery query) throws RemoteException {
+        if (messageIndex == null || query == null)
+            return new ArrayList<>();
+        return messageIndex.search(query);
+    }
+
+    /**
+     * Removes a client from the server, closing its connection if it uses the NIO transport
      * @param username the username of the client to be removed
      */
     public void removeClient(String username)  {
+        removeClient(username, true);
+    }
+
+    /**
+     * Removes a client from the server
+     * @param username the username of the client to be removed
+     * @param closeConnection whether to close the NIO connection of the client
+     */
+    private void removeClient(String username, boolean closeConnection) {
+        IRCClientInterface client = getClient(username);
 
         // remove client in lobby
         signatureVerifier.removeSignature(username);
         clientsInLobby.remove(username);
+        if (leaseManager != null)
+            leaseManager.remove(username);
+
+        try {
+            Channel c = userLocations.remove(username);
+            if (c == null)
+                return;
+            if (!isPrivateChat(c.getName())) {
+                // Remove client from its channel
+                c.removeClient(username);
+                return;
+            }
 
-        // Remove client from channels
-        for (Channel c : channels)
+            // Close the private chat and send the other participant back to the lobby
             c.removeClient(username);
+            privateChats.remove(c.getName(), c);
+            HashMap<String, IRCClientInterface> others = new HashMap<>(c.getClients());
+            for (Map.Entry<String, IRCClientInterface> e : others.entrySet()) {
+                c.removeClient(e.getKey());
+                userLocations.remove(e.getKey(), c);
+                clientsInLobby.put(e.getKey(), e.getValue());
+                notifyLeave(e.getKey(), e.getValue());
+            }
+        } finally {
+            // only once the client left its channel, so that a broadcast cannot recreate the lane
+            dispatcher.removeLane(username);
+            if (closeConnection && client != null)
+                closeConnection(client);
+        }
+    }
 
-        // Remove client from private chats
-        Channel toRemove = null;
-        for (Channel c : privateChats)
-            if (c.getClients().containsKey(username)) {
-                for (String u : c.getClients().keySet())
-                    if (u.equals(username)) {
-                        try {
-                            IRCClientInterface iface = c.getClients().get(u);
-                            iface.notifyLeave();
-                            clientsInLobby.put(u, iface);
-                        } catch (RemoteException e) {
-                            c.removeClient(u);
-                        }
-                    } else {
-                        c.removeClient(username);
-                    }
-                toRemove = c;
-                break;
+    /**
+     * Registers the NIO connection of a client, to be closed when the client is removed
+     * @param client the callback proxy of the connection
+     * @param connection the connection
+     */
+    void addConnection(IRCClientInterface client, NioConnection connection) {
+        connections.put(client, connection);
+    }
+
+    /**
+     * Unregisters a closed NIO connection
+     * @param client the callback proxy of the connection
+     */
+    void removeConnection(IRCClientInterface client) {
+        connections.remove(client);
+    }
+
+    /**
+     * Closes the NIO connection of a removed client, failing the calls waiting for its replies
+     * @param client the remote client object
+     */
+    private void closeConnection(IRCClientInterface client) {
+        NioConnection connection = connections.remove(client);
+        if (connection != null)
+            connection.close();
+    }
+
+    /**
+     * Tells a client sent back to the lobby that its chat was closed, on the callback executor.
+     * A client that cannot be notified is removed.
+     * @param username the username of the client
+     * @param client the remote client object
+     */
+    private void notifyLeave(String username, IRCClientInterface client) {
+        callbackExecutor.execute(() -> {
+            try {
+                client.notifyLeave();
+            } catch (RemoteException e) {
+                dispatcher.onDeliveryFailure();
+                // the username may have been reused by a new connection in the meantime
+                if (clientsInLobby.get(username) == client)
+                    removeClient(username);
             }
-        if (toRemove != null)
-            privateChats.remove(toRemove);
+        });
+    }
+
+    /**
+     * Looks up a channel or a private chat by name
+     * @param channelName the name of the channel
+     * @return the channel, null if it does not exist
+     */
+    private Channel findChannel(String channelName) {
+        return isPrivateChat(channelName) ? privateChats.get(channelName) : channels.get(channelName);
+    }
+
+    /**
+     * Checks whether a channel name refers to a private chat
+     * @param channelName the name of the channel
+     * @return true if the name is the one of a private chat
+     */
+    private static boolean isPrivateChat(String channelName) {
+        return channelName.startsWith("private_");
+    }
+
+    /**
+     * Returns the signature algorithms the clients may connect with
+     * @return the algorithm names, such as "ed25519", in order of preference
+     */
+    @Override
+    public ArrayList<String> getSignatureAlgorithms() {
+        ArrayList<String> names = new ArrayList<>();
+        for (SignatureAlgorithm algorithm : signatureVerifier.getAllowedAlgorithms())
+            names.add(algorithm.getId());
+        return names;
     }
 
     /**
@@ -158,7 +454,7 @@ public class IRCServer extends UnicastRemoteObject implements IRCServerInterface
         StringBuilder greeting = new StringBuilder();
         greeting.append("Welcome to the ").append(this.name).append(" IRC Server!\n");
         greeting.append("Available channels: \n");
-        for (Channel c : channels)
+        for (Channel c : sortedChannels())
             greeting.append("    #").append(c.getName()).append("\t").append(c.getClients().keySet().size()).append(" users\n");
         return greeting.toString();
     }
@@ -179,25 +475,33 @@ public class IRCServer extends UnicastRemoteObject implements IRCServerInterface
     @Override
     public ArrayList<String> getChannelDescriptions() throws RemoteException {
         ArrayList<String> ret = new ArrayList<>();
-        for (Channel c : channels)
+        for (Channel c : sortedChannels())
             ret.add(c.getName() + " \t" + c.getClients().size() + " users");
         return ret;
     }
 
+    /**
+     * Returns the channels sorted by name
+     * @return the sorted channels
+     */
+    private Collection<Channel> sortedChannels() {
+        return new TreeMap<>(channels).values();
+    }
+
     /**
      * Returns the channels
      * @return the channels
      */
-    public Vector<Channel> getChannels() {
-        return channels;
+    public Collection<Channel> getChannels() {
+        return channels.values();
     }
 
     /**
      * Returns the private chats
      * @return the private chats
      */
-    public Vector<Channel> getPrivateChats() {
-        return privateChats;
+    public Collection<Channel> getPrivateChats() {
+        return privateChats.values();
     }
 
     /**
@@ -209,17 +513,26 @@ public class IRCServer extends UnicastRemoteObject implements IRCServerInterface
      */
     @Override
     public int joinChannel(String username, String channelName, byte[] signedFingerprint) {
-        System.out.println("[INFO] Received JoinChannel(" + channelName + ") request from " + username + ".");
-        if (signatureVerifier.verifySignature(username, (username + channelName).getBytes(), signedFingerprint)) {
-            for (Channel c : channels)
-                if (c.getName().equals(channelName)) {
-                    c.addClient(username, clientsInLobby.get(username));
-                    clientsInLobby.remove(username);
-                    return 0;
+        ServerLog.info("Received joinChannel({}) request from {}.", channelName, username);
+        long start = System.nanoTime();
+        try {
+            if (signatureVerifier.verifySignature(username, (username + channelName).getBytes(), signedFingerprint)) {
+                Channel c = channels.get(channelName);
+                if (c == null) {
+                    ServerLog.warn("Channel {} does not exist.", channelName);
+                    return -1;
                 }
-            System.err.println("Channel " + channelName + " does not exist.");
+                IRCClientInterface client = clientsInLobby.remove(username);
+                if (client == null)
+                    return -1; // not in lobby
+                userLocations.put(username, c);
+                c.addClient(username, client);
+                return 0;
+            }
+            return -1;
+        } finally {
+            joinMetrics.record(start);
         }
-        return -1;
     }
 
     /**
@@ -229,28 +542,26 @@ public class IRCServer extends UnicastRemoteObject implements IRCServerInterface
      * @param signedFingerprint the signed username+channel string
      */
     public void leaveChannel(String username, String channelName, byte[] signedFingerprint) {
-        System.out.println("[INFO] Received leaveChannel(" + channelName + ") request from " + username + ".");
+        ServerLog.info("Received leaveChannel({}) request from {}.", channelName, username);
         if (signatureVerifier.verifySignature(username, (username+channelName).getBytes(), signedFingerprint)) {
-            if (channelName.startsWith("private_")) {
-                for (Channel c : privateChats)
-                    if (c.getName().equals(channelName)) {
-                        HashMap<String, IRCClientInterface> clientsInChannel = new HashMap<>(c.getClients());
-                        for (String u : clientsInChannel.keySet()) {
-                            try {
-                                clientsInChannel.get(u).notifyLeave();
-                            } catch (RemoteException ignored) {}
-                            c.removeClient(u);
-                        }
-                        clientsInLobby.putAll(clientsInChannel);
-                        privateChats.remove(c);
-                        return;
-                    }
+            if (isPrivateChat(channelName)) {
+                Channel c = privateChats.remove(channelName);
+                if (c == null)
+                    return;
+                HashMap<String, IRCClientInterface> clientsInChannel = new HashMap<>(c.getClients());
+                for (String u : clientsInChannel.keySet()) {
+                    c.removeClient(u);
+                    userLocations.remove(u, c);
+                }
+                clientsInLobby.putAll(clientsInChannel);
+                clientsInChannel.forEach(this::notifyLeave);
             } else {
-                for (Channel c : channels)
-                    if (c.getName().equals(channelName)) {
-                        IRCClientInterface client = c.removeClient(username);
+                Channel c = channels.get(channelName);
+                if (c != null && userLocations.remove(username, c)) {
+                    IRCClientInterface client = c.removeClient(username);
+                    if (client != null)
                         clientsInLobby.put(username, client);
-                    }
+                }
             }
         }
     }
@@ -264,7 +575,7 @@ public class IRCServer extends UnicastRemoteObject implements IRCServerInterface
      */
     @Override
     public int joinPrivateChat(String username, String targetUsername, byte[] signedFingerprint) {
-        System.out.println("[INFO] Received joinPrivateChat(" + targetUsername + ") request from " + username + ".");
+        ServerLog.info("Received joinPrivateChat({}) request from {}.", targetUsername, username);
         // Verify signature
         if (signatureVerifier.verifySignature(username, (username + targetUsername).getBytes(), signedFingerprint)) {
             if (username.equals(targetUsername))
@@ -274,12 +585,21 @@ public class IRCServer extends UnicastRemoteObject implements IRCServerInterface
             try {
                 if (clientsInLobby.get(targetUsername).requestPrivateChat(username)) {
                     // success
-                    Channel c = new Channel("private_" + username);
-                    c.addClient(username, clientsInLobby.get(username));
-                    c.addClient(targetUsername, clientsInLobby.get(targetUsername));
-                    clientsInLobby.remove(username);
-                    clientsInLobby.remove(targetUsername);
-                    privateChats.add(c);
+                    Channel c = new Channel("private_" + username, dispatcher);
+                    IRCClientInterface client = clientsInLobby.remove(username);
+                    IRCClientInterface target = clientsInLobby.remove(targetUsername);
+                    if (client == null || target == null || privateChats.putIfAbsent(c.getName(), c) != null) {
+                        // one of the two left the lobby in the meantime
+                        if (client != null)
+                            clientsInLobby.put(username, client);
+                        if (target != null)
+                            clientsInLobby.put(targetUsername, target);
+                        return -1;
+                    }
+                    c.addClient(username, client);
+                    c.addClient(targetUsername, target);
+                    userLocations.put(username, c);
+                    userLocations.put(targetUsername, c);
                     return 0; // success
                 } else {
                     return -2; // client refused private chat
@@ -294,23 +614,150 @@ public class IRCServer extends UnicastRemoteObject implements IRCServerInterface
     }
 
     /**
-     * Add a channel to the server
+     * Add a channel to the server, with a history configured by the "irc.history.*" system properties
      * @param channelName the name of the channel to add
      * @return 0 in case of success, -1 if the channel already exists
      */
     public int addChannel(String channelName) {
-        if (channelName.isEmpty()) {
+        if (channelName.isEmpty() || isPrivateChat(channelName)) {
             return -1;
         }
         // check for duplicates
-        for (Channel c : channels)
-            if (c.getName().equals(channelName))
-                return -1;
-        Channel c = new Channel(channelName);
-        channels.add(c);
+        if (channels.putIfAbsent(channelName, new Channel(channelName, dispatcher, ChannelHistory.fromProperties())) != null)
+            return -1;
         return 0;
     }
 
+    /**
+     * Fills the histories of the channels and the search index with the messages of the message log,
+     * to be called once the channels have been added
+     */
+    public void restoreHistory() {
+        if (messageLog == null)
+            return;
+        try {
+            messageLog.read(m -> {
+                Channel c = channels.get(m.getChannel());
+                if (c == null)
+                    return;
+                c.restoreHistory(m);
+                if (messageIndex != null)
+                    messageIndex.add(c.getName(), m);
+            });
+        } catch (IOException e) {
+            ServerLog.warn("Couldn't read the message log: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the log of the accepted messages
+     * @return the message log, null if "irc.log.dir" is not set
+     */
+    public MessageLog getMessageLog() {
+        return messageLog;
+    }
+
+    /**
+     * Returns the index of the public channel messages
+     * @return the message index, null if disabled
+     */
+    public MessageIndex getMessageIndex() {
+        return messageIndex;
+    }
+
+    /**
+     * Returns the name of the server
+     * @return the server name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the metrics of the server, also exposed through JMX
+     * @return the server metrics
+     */
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the metrics of the connect calls
+     * @return the connect metrics
+     */
+    OperationMetrics getConnectMetrics() {
+        return connectMetrics;
+    }
+
+    /**
+     * Returns the metrics of the joinChannel calls
+     * @return the join metrics
+     */
+    OperationMetrics getJoinMetrics() {
+        return joinMetrics;
+    }
+
+    /**
+     * Returns the metrics of the sendMessage calls, signature verification and fan-out included
+     * @return the send metrics
+     */
+    OperationMetrics getSendMetrics() {
+        return sendMetrics;
+    }
+
+    /**
+     * Returns the monitor of the pinned virtual threads
+     * @return the pinning monitor, null if the callbacks do not run on virtual threads
+     */
+    PinningMonitor getPinningMonitor() {
+        return pinningMonitor;
+    }
+
+    /**
+     * Returns the dispatcher delivering messages to the clients
+     * @return the message dispatcher
+     */
+    public MessageDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Returns the remote object of a connected client
+     * @param username the username of the client
+     * @return the client, null if no client with that username is connected
+     */
+    public IRCClientInterface getClient(String username) {
+        IRCClientInterface client = clientsInLobby.get(username);
+        if (client != null)
+            return client;
+        Channel c = userLocations.get(username);
+        return c == null ? null : c.getClients().get(username);
+    }
+
+    /**
+     * Returns the detector removing unreachable clients
+     * @return the disconnect detector, null if the server uses leases instead
+     */
+    public DisconnectDetector getDisconnectDetector() {
+        return disconnectDetector;
+    }
+
+    /**
+     * Returns the manager of the clients' leases
+     * @return the lease manager, null if the server polls the clients instead
+     */
+    public LeaseManager getLeaseManager() {
+        return leaseManager;
+    }
+
+    /**
+     * Returns the verifier authenticating the clients' requests
+     * @return the signature verifier
+     */
+    public SignatureVerifier getSignatureVerifier() {
+        return signatureVerifier;
+    }
+
     /**
      * Returns the list of the clients in lobby
      * @return the list of the clients in lobby
@@ -1,9 +1,13 @@
 package server;
 
+import client.ChatMessage;
+import client.IRCClientInterface;
+
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.security.PublicKey;
 import java.util.ArrayList;
+import java.util.List;
 
 public interface IRCServerInterface extends Remote {
 
@@ -16,12 +20,52 @@ public interface IRCServerInterface extends Remote {
      */
     int connect(String username, PublicKey publicKey, byte[] signedFingerprint) throws RemoteException;
 
+    /**
+     * Procedure to connect to the server handing it the client's callback object, so that the client does not
+     * have to bind itself in the RMI registry
+     * @param username the username of the client
+     * @param publicKey the public key of the client
+     * @param signedFingerprint the signed username
+     * @param client the remote client object, looked up in the RMI registry if null
+     * @return 0 if the connection is successful, -1 otherwise
+     */
+    int connect(String username, PublicKey publicKey, byte[] signedFingerprint, IRCClientInterface client) throws RemoteException;
+
+    /**
+     * Procedure to connect to the server agreeing on a session key.
+     * After the handshake the client authenticates its requests with HMAC-SHA256 instead of its signature key.
+     * @param username the username of the client
+     * @param publicKey the public key of the client
+     * @param sessionKey the client's ephemeral key agreement public key
+     * @param signedFingerprint the signed username+session key
+     * @return the server's half of the handshake, null if the connection was refused
+     */
+    SessionHandshake connectWithSession(String username, PublicKey publicKey, PublicKey sessionKey, byte[] signedFingerprint) throws RemoteException;
+
+    /**
+     * Procedure to connect to the server agreeing on a session key and handing it the client's callback object,
+     * so that the client does not have to bind itself in the RMI registry
+     * @param username the username of the client
+     * @param publicKey the public key of the client
+     * @param sessionKey the client's ephemeral key agreement public key
+     * @param signedFingerprint the signed username+session key
+     * @param client the remote client object, looked up in the RMI registry if null
+     * @return the server's half of the handshake, null if the connection was refused
+     */
+    SessionHandshake connectWithSession(String username, PublicKey publicKey, PublicKey sessionKey, byte[] signedFingerprint, IRCClientInterface client) throws RemoteException;
+
     /**
      * Returns a greeting to the server
      * @return the greeting
      */
     String getGreeting() throws RemoteException;
 
+    /**
+     * Returns the signature algorithms the clients may connect with
+     * @return the algorithm names, such as "ed25519", in order of preference
+     */
+    ArrayList<String> getSignatureAlgorithms() throws RemoteException;
+
     /**
      * Returns the users in lobby
      * @return a list containing the usernames in lobby
@@ -67,6 +111,14 @@ public interface IRCServerInterface extends Remote {
      */
     void disconnect(String username, byte[] signedFingerprint) throws RemoteException;
 
+    /**
+     * Renews the lease of a client, to be called periodically when the server runs in lease mode
+     * @param username the client renewing its lease
+     * @param signedFingerprint the signed username+":lease" string
+     * @return the lease duration in milliseconds, -1 if the server does not use leases or the renewal was refused
+     */
+    long renewLease(String username, byte[] signedFingerprint) throws RemoteException;
+
     /**
      * Sends a message to a channel
      * @param username the username of the sender
@@ -75,4 +127,25 @@ public interface IRCServerInterface extends Remote {
      * @param signedFingerprint the signature of the message
      */
     void sendMessage(String username, String channel, String message, byte[] signedFingerprint) throws RemoteException;
+
+    /**
+     * Sends a message to a channel, using the compact message envelope
+     * @param message the message, carrying the sender, the channel and the signature of the text
+     */
+    void sendMessage(ChatMessage message) throws RemoteException;
+
+    /**
+     * Sends several messages in one call, in order, and acknowledges each of them
+     * @param messages the messages, each carrying the sender, the channel and the signature of the text
+     * @return the status of every message: 0 if it was accepted, -1 if it is malformed or the channel does not
+     * exist, -3 if the signature verification failed
+     */
+    int[] sendMessages(List<ChatMessage> messages) throws RemoteException;
+
+    /**
+     * Searches the messages of the public channels
+     * @param query the words to look for, the filters and the page wanted
+     * @return the matching messages, newest first, empty if the server keeps no index
+     */
+    ArrayList<ChatMessage> search(SearchQuery query) throws RemoteException;
 }
\ No newline at end of file
@@ -0,0 +1,140 @@
+package server;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the leases renewed by the clients in a hashed timer wheel and removes the clients whose lease expired.
+ * The wheel has one bucket per tick and is longer than a lease, so a bucket only ever holds the leases
+ * expiring at that tick: renewing moves a lease to a later bucket and a tick only visits the expired ones.
+ */
+public class LeaseManager implements Runnable {
+    private final IRCServer server;
+    private final long tickMillis;
+    private final long leaseMillis;
+    private final long ticksPerLease;
+    private final Set<String>[] wheel;
+    private final ConcurrentHashMap<String, Lease> leases = new ConcurrentHashMap<>();
+    private volatile long currentTick = 0;
+    private volatile long expirations = 0;
+
+    private static class Lease {
+        private long deadlineTick;
+    }
+
+    /**
+     * LeaseManager constructor
+     * @param server the server from which expired clients are removed
+     * @param leaseMillis how long a lease lasts after being renewed
+     * @param tickMillis the resolution of the expiry check
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public LeaseManager(IRCServer server, long leaseMillis, long tickMillis) {
+        this.server = server;
+        this.tickMillis = Math.max(1, tickMillis);
+        this.ticksPerLease = Math.max(1, (leaseMillis + this.tickMillis - 1) / this.tickMillis);
+        this.leaseMillis = ticksPerLease * this.tickMillis;
+        wheel = new Set[(int) ticksPerLease + 2];
+        for (int i = 0; i < wheel.length; i++)
+            wheel[i] = ConcurrentHashMap.newKeySet();
+    }
+
+    /**
+     * Starts ticking the wheel on a dedicated thread
+     */
+    public void start() {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(ServerExecutors.daemonThreadFactory("irc-lease"));
+        scheduler.scheduleAtFixedRate(this, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Grants or renews the lease of a client
+     * @param username the client
+     */
+    public void renew(String username) {
+        Lease lease = leases.computeIfAbsent(username, u -> new Lease());
+        synchronized (lease) {
+            if (lease.deadlineTick != 0)
+                wheel[slot(lease.deadlineTick)].remove(username);
+            // the lease lasts at least leaseMillis, whatever the position inside the current tick
+            lease.deadlineTick = currentTick + ticksPerLease + 1;
+            wheel[slot(lease.deadlineTick)].add(username);
+        }
+    }
+
+    /**
+     * Drops the lease of a client without removing the client
+     * @param username the client
+     */
+    public void remove(String username) {
+        Lease lease = leases.remove(username);
+        if (lease != null)
+            synchronized (lease) {
+                wheel[slot(lease.deadlineTick)].remove(username);
+            }
+    }
+
+    /**
+     * Advances the wheel by one tick and removes the clients whose lease expired
+     */
+    @Override
+    public void run() {
+        long tick = currentTick + 1;
+        currentTick = tick;
+        Set<String> bucket = wheel[slot(tick)];
+        for (String username : bucket) {
+            Lease lease = leases.get(username);
+            boolean expired = false;
+            if (lease != null)
+                synchronized (lease) {
+                    if (lease.deadlineTick <= tick && leases.remove(username, lease)) {
+                        bucket.remove(username);
+                        expired = true;
+                    }
+                }
+            else
+                bucket.remove(username);
+            if (expired) {
+                expirations++;
+                ServerLog.info("Lease of {} expired, disconnecting.", username);
+                server.removeClient(username);
+            }
+        }
+    }
+
+    /**
+     * Returns the wheel bucket of a tick
+     * @param tick the tick
+     * @return the bucket index
+     */
+    private int slot(long tick) {
+        return (int) (tick % wheel.length);
+    }
+
+    /**
+     * Returns how long a lease lasts after being renewed
+     * @return the lease duration in milliseconds
+     */
+    public long getLeaseMillis() {
+        return leaseMillis;
+    }
+
+    /**
+     * Returns the number of clients holding a lease
+     * @return the number of leases
+     */
+    public int getActiveLeases() {
+        return leases.size();
+    }
+
+    /**
+     * Returns the number of clients removed because their lease expired
+     * @return the expirations count
+     */
+    public long getExpirations() {
+        return expirations;
+    }
+}
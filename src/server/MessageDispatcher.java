@@ -0,0 +1,262 @@
+package server;
+
+import client.ChatMessage;
+import client.IRCClientInterface;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public class MessageDispatcher {
+    private final IRCServer server;
+    private final ExecutorService executor;
+    private final ConcurrentHashMap<String, DeliveryLane> lanes = new ConcurrentHashMap<>();
+    private final int queueCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final int batchSize = Math.max(1, Integer.getInteger("irc.batch.size", 64));
+    private final long batchLingerMillis = Long.getLong("irc.batch.linger.ms", 0);
+    private final ScheduledExecutorService lingerScheduler;
+    private final LongAdder droppedMessages = new LongAdder();
+    private final LongAdder overflowDisconnects = new LongAdder();
+    private final LongAdder failedDeliveries = new LongAdder();
+    private final OperationMetrics fanOutMetrics = new OperationMetrics("fan-out");
+    private final Histogram recipients = new Histogram();
+
+    /**
+     * MessageDispatcher constructor, reads the queue capacity from the "irc.queue.capacity" system property
+     * and the overflow policy from "irc.queue.policy"
+     * @param server the server whose clients are disconnected by the DISCONNECT policy
+     * @param executor the executor on which the deliveries run
+     */
+    public MessageDispatcher(IRCServer server, ExecutorService executor) {
+        this(server, executor, Integer.getInteger("irc.queue.capacity", 1024),
+                OverflowPolicy.fromString(System.getProperty("irc.queue.policy")));
+    }
+
+    /**
+     * MessageDispatcher constructor
+     * @param server the server whose clients are disconnected by the DISCONNECT policy
+     * @param executor the executor on which the deliveries run
+     * @param queueCapacity the maximum number of pending messages per client
+     * @param overflowPolicy what to do when a client's queue is full
+     */
+    public MessageDispatcher(IRCServer server, ExecutorService executor, int queueCapacity, OverflowPolicy overflowPolicy) {
+        this.server = server;
+        this.executor = executor;
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.overflowPolicy = overflowPolicy;
+        lingerScheduler = batchLingerMillis > 0
+                ? Executors.newSingleThreadScheduledExecutor(ServerExecutors.daemonThreadFactory("irc-linger"))
+                : null;
+    }
+
+    /**
+     * Enqueues a message for a client, returns without waiting for the delivery
+     * @param username the username of the recipient
+     * @param client the remote client object of the recipient
+     * @param message the message, the same instance may be delivered to several clients
+     */
+    public void deliver(String username, IRCClientInterface client, ChatMessage message) {
+        laneFor(username, client).enqueue(message);
+    }
+
+    /**
+     * Enqueues several messages for a client, delivered together in the next batch
+     * @param username the username of the recipient
+     * @param client the remote client object of the recipient
+     * @param messages the messages, in delivery order
+     */
+    public void deliverAll(String username, IRCClientInterface client, List<ChatMessage> messages) {
+        if (!messages.isEmpty())
+            laneFor(username, client).enqueueAll(messages);
+    }
+
+    /**
+     * Returns the lane of a client, creating it if needed
+     * @param username the username of the recipient
+     * @param client the remote client object of the recipient
+     * @return the lane delivering to this client object
+     */
+    private DeliveryLane laneFor(String username, IRCClientInterface client) {
+        DeliveryLane lane = lanes.get(username);
+        if (lane == null || lane.getClient() != client) {
+            // first message for this client, or the username has been taken by a different client object
+            lane = lanes.compute(username, (u, old) -> {
+                if (old != null && old.getClient() == client)
+                    return old;
+                if (old != null)
+                    old.close();
+                return new DeliveryLane(u, client, this);
+            });
+        }
+        return lane;
+    }
+
+    /**
+     * Drops the lane of a client together with its pending messages
+     * @param username the client whose lane has to be removed
+     */
+    public void removeLane(String username) {
+        DeliveryLane lane = lanes.remove(username);
+        if (lane != null)
+            lane.close();
+    }
+
+    /**
+     * Runs an idle lane that just received a message.
+     * When "irc.batch.linger.ms" is set the lane waits that long, so that more messages can join the batch.
+     * @param lane the lane to run
+     */
+    void schedule(DeliveryLane lane) {
+        if (lingerScheduler == null)
+            executor.execute(lane);
+        else
+            lingerScheduler.schedule(() -> executor.execute(lane), batchLingerMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Called by a lane whose queue overflowed
+     * @param lane the lane that overflowed
+     */
+    void onOverflow(DeliveryLane lane) {
+        droppedMessages.increment();
+        if (overflowPolicy == OverflowPolicy.DISCONNECT) {
+            overflowDisconnects.increment();
+            ServerLog.warn("Outbound queue of {} is full, disconnecting.", lane.getUsername());
+            // never disconnect on the sender's thread, removeClient broadcasts to other channels
+            executor.execute(() -> {
+                if (lanes.get(lane.getUsername()) == lane)
+                    server.removeClient(lane.getUsername());
+            });
+        }
+    }
+
+    /**
+     * Records a channel broadcast
+     * @param startNanos the System.nanoTime() at which the broadcast started
+     * @param recipientCount the number of clients the message was enqueued for
+     */
+    void recordBroadcast(long startNanos, int recipientCount) {
+        fanOutMetrics.record(startNanos);
+        recipients.record(recipientCount);
+    }
+
+    /**
+     * Called when a callback to a client failed
+     */
+    void onDeliveryFailure() {
+        failedDeliveries.increment();
+    }
+
+    /**
+     * Called by a lane whose delivery call failed, once the lane is closed: removes its client, unless the
+     * username was taken by another client in the meantime
+     * @param lane the lane that failed
+     */
+    void onDeliveryFailure(DeliveryLane lane) {
+        failedDeliveries.increment();
+        ServerLog.warn("Delivery to {} failed, disconnecting.", lane.getUsername());
+        // already on the executor, not on a sender's thread
+        if (lanes.get(lane.getUsername()) == lane)
+            server.removeClient(lane.getUsername());
+    }
+
+    /**
+     * Returns the number of delivery calls that failed
+     * @return the failed deliveries count
+     */
+    public long getFailedDeliveries() {
+        return failedDeliveries.sum();
+    }
+
+    /**
+     * Returns the count, rate and latency histogram of the broadcasts, measured up to the last enqueue
+     * @return the fan-out metrics
+     */
+    public OperationMetrics getFanOutMetrics() {
+        return fanOutMetrics;
+    }
+
+    /**
+     * Returns the distribution of the number of recipients per broadcast
+     * @return the recipients histogram
+     */
+    public Histogram getRecipients() {
+        return recipients;
+    }
+
+    /**
+     * Returns the number of messages waiting to be delivered to a client
+     * @param username the client
+     * @return the queue depth, 0 if the client has no lane
+     */
+    public int getQueueDepth(String username) {
+        DeliveryLane lane = lanes.get(username);
+        return lane == null ? 0 : lane.getQueueDepth();
+    }
+
+    /**
+     * Returns the number of messages dropped for a client because its queue was full
+     * @param username the client
+     * @return the dropped messages count, 0 if the client has no lane
+     */
+    public long getDroppedMessages(String username) {
+        DeliveryLane lane = lanes.get(username);
+        return lane == null ? 0 : lane.getDroppedMessages();
+    }
+
+    /**
+     * Returns the number of messages waiting to be delivered to all the clients
+     * @return the total queue depth
+     */
+    public long getTotalQueueDepth() {
+        long total = 0;
+        for (DeliveryLane lane : lanes.values())
+            total += lane.getQueueDepth();
+        return total;
+    }
+
+    /**
+     * Returns the number of messages dropped since the server started
+     * @return the dropped messages count
+     */
+    public long getDroppedMessages() {
+        return droppedMessages.sum();
+    }
+
+    /**
+     * Returns the number of clients disconnected because their queue overflowed
+     * @return the disconnections count
+     */
+    public long getOverflowDisconnects() {
+        return overflowDisconnects.sum();
+    }
+
+    /**
+     * Returns the maximum number of pending messages per client
+     * @return the queue capacity
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Returns the maximum number of messages delivered with a single call, read from "irc.batch.size"
+     * @return the batch size
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Returns the policy applied when a client's queue is full
+     * @return the overflow policy
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+}
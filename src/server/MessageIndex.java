@@ -0,0 +1,423 @@
+package server;
+
+import client.ChatMessage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Inverted index over the messages of the public channels.
+ * Accepted messages are only enqueued: a background thread indexes them in batches, so senders never wait for the
+ * index lock and searches never stall senders; a message becomes searchable shortly after it is accepted, and when
+ * the indexer falls behind new messages are left out of the index rather than blocking the senders.
+ * Messages are grouped in segments of at most a fixed number of messages and a fixed number of bytes, each with
+ * its own term postings; when the index holds its maximum number of segments the oldest one is dropped, so memory
+ * stays bounded by the number of segments times their byte budget whatever the size of the messages.
+ * Queries walk the segments from the newest and stop as soon as the requested page is complete.
+ * Words longer than 64 characters are indexed and looked for by their first 64 characters.
+ */
+public class MessageIndex {
+    private static final int MAX_TERM_LENGTH = 64;
+    public static final long DEFAULT_SEGMENT_BYTES = 16 * 1024 * 1024;
+    // estimated heap cost of a message slot (the text String and its array) and of a new term (map entry,
+    // String and postings), on top of the characters
+    private static final int MESSAGE_OVERHEAD = 64;
+    private static final int TERM_OVERHEAD = 112;
+    private static final int INITIAL_SEGMENT_CAPACITY = 1024;
+    private static final int MAX_BATCH = 1024;
+
+    private final int segmentMessages;
+    private final long segmentBytes;
+    private final int maxSegments;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ArrayBlockingQueue<ChatMessage> queue;
+    private final Thread indexer;
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean running = true;
+
+    /**
+     * MessageIndex constructor, with segments of at most 16 MiB
+     * @param segmentMessages the number of messages of a segment
+     * @param maxSegments the number of segments kept, the index holds at most segmentMessages * maxSegments messages
+     */
+    public MessageIndex(int segmentMessages, int maxSegments) {
+        this(segmentMessages, DEFAULT_SEGMENT_BYTES, maxSegments, 65536);
+    }
+
+    /**
+     * MessageIndex constructor, starts the indexer thread
+     * @param segmentMessages the number of messages of a segment
+     * @param segmentBytes the estimated memory of a segment, texts and postings included
+     * @param maxSegments the number of segments kept, the index holds at most segmentMessages * maxSegments messages
+     *                    and segmentBytes * maxSegments bytes
+     * @param queueCapacity the number of messages waiting to be indexed beyond which new messages are dropped
+     */
+    public MessageIndex(int segmentMessages, long segmentBytes, int maxSegments, int queueCapacity) {
+        this.segmentMessages = Math.max(1, segmentMessages);
+        this.segmentBytes = Math.max(1, segmentBytes);
+        this.maxSegments = Math.max(1, maxSegments);
+        queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        indexer = new Thread(this::indexLoop, "irc-message-index");
+        indexer.setDaemon(true);
+        indexer.start();
+    }
+
+    /**
+     * Creates an index configured by the "irc.search.segment.messages" (default 65536), "irc.search.segment.bytes"
+     * (default 16 MiB), "irc.search.segments" (default 16) and "irc.search.queue" (default 65536) system properties
+     * @return the index, null if it is disabled by a size of 0
+     */
+    public static MessageIndex fromProperties() {
+        int segmentMessages = Integer.getInteger("irc.search.segment.messages", 65536);
+        long segmentBytes = Long.getLong("irc.search.segment.bytes", DEFAULT_SEGMENT_BYTES);
+        int maxSegments = Integer.getInteger("irc.search.segments", 16);
+        if (segmentMessages <= 0 || segmentBytes <= 0 || maxSegments <= 0)
+            return null;
+        return new MessageIndex(segmentMessages, segmentBytes, maxSegments, Integer.getInteger("irc.search.queue", 65536));
+    }
+
+    /**
+     * Enqueues a message for indexing, never blocks
+     * @param channel the channel the message was sent to
+     * @param message the message
+     * @return true if the message was enqueued, false if it was dropped because the indexer is behind or closed
+     */
+    public boolean append(String channel, ChatMessage message) {
+        if (running && queue.offer(new ChatMessage(message.getSenderUsername(), channel, message.getMessage(), message.getTimestamp(), null)))
+            return true;
+        dropped.increment();
+        return false;
+    }
+
+    /**
+     * Indexes a message right away, on the calling thread
+     * @param channel the channel the message was sent to
+     * @param message the message
+     */
+    public void add(String channel, ChatMessage message) {
+        // tokenize outside of the lock
+        String[] terms = tokenize(message.getMessage());
+        lock.writeLock().lock();
+        try {
+            add(channel, message, terms);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Indexes the pending messages and stops the indexer thread
+     */
+    public void close() {
+        running = false;
+        try {
+            indexer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Indexer thread: drains the queue in batches, taking the write lock once per batch, until the index is closed
+     */
+    private void indexLoop() {
+        ArrayList<ChatMessage> batch = new ArrayList<>(MAX_BATCH);
+        String[][] batchTerms = new String[MAX_BATCH][];
+        try {
+            while (running || !queue.isEmpty()) {
+                ChatMessage first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                for (int i = 0; i < batch.size(); i++)
+                    batchTerms[i] = tokenize(batch.get(i).getMessage());
+                lock.writeLock().lock();
+                try {
+                    for (int i = 0; i < batch.size(); i++)
+                        add(batch.get(i).getChannel(), batch.get(i), batchTerms[i]);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                batch.clear();
+                Arrays.fill(batchTerms, null);
+            }
+        } catch (InterruptedException e) {
+            running = false;
+        }
+    }
+
+    /**
+     * Adds a message to the newest segment, opening a new one when it is full, with the write lock held
+     * @param channel the channel the message was sent to
+     * @param message the message
+     * @param terms the distinct words of the message
+     */
+    private void add(String channel, ChatMessage message, String[] terms) {
+        Segment segment = segments.peekLast();
+        if (segment == null || segment.size == segmentMessages
+                || (segment.size > 0 && segment.bytes + segment.cost(message, terms) > segmentBytes)) {
+            segment = new Segment(segmentMessages);
+            segments.addLast(segment);
+            if (segments.size() > maxSegments)
+                segments.removeFirst();
+        }
+        segment.add(channel, message, terms);
+    }
+
+    /**
+     * Runs a query
+     * @param query the query
+     * @return a page of the matching messages, newest first, with their channel set
+     */
+    public ArrayList<ChatMessage> search(SearchQuery query) {
+        int limit = Math.min(Math.max(query.getLimit(), 0), SearchQuery.MAX_LIMIT);
+        int toSkip = Math.max(query.getOffset(), 0);
+        long since = query.getSince();
+        long until = query.getUntil() > 0 ? query.getUntil() : Long.MAX_VALUE;
+        String[] terms = tokenize(query.getText());
+        ArrayList<ChatMessage> results = new ArrayList<>(limit);
+        if (limit == 0)
+            return results;
+        lock.readLock().lock();
+        try {
+            Iterator<Segment> it = segments.descendingIterator();
+            while (it.hasNext() && results.size() < limit) {
+                Segment segment = it.next();
+                if (segment.size == 0 || segment.timestamps[0] > until || segment.timestamps[segment.size - 1] < since)
+                    continue;
+                Postings[] postings = segment.postings(terms);
+                if (postings == null)
+                    continue; // a term does not occur in this segment
+                Postings driver = postings.length == 0 ? null : postings[0];
+                int i = driver == null ? segment.size - 1 : driver.size - 1;
+                for (; i >= 0 && results.size() < limit; i--) {
+                    int id = driver == null ? i : driver.ids[i];
+                    if (!segment.matches(id, postings, query.getChannel(), query.getSender(), since, until))
+                        continue;
+                    if (toSkip > 0) {
+                        toSkip--;
+                        continue;
+                    }
+                    results.add(new ChatMessage(segment.senders[id], segment.channels[id], segment.texts[id],
+                            segment.timestamps[id], null));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return results;
+    }
+
+    /**
+     * Returns the number of indexed messages
+     * @return the message count
+     */
+    public long size() {
+        lock.readLock().lock();
+        try {
+            long size = 0;
+            for (Segment s : segments)
+                size += s.size;
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the number of messages left out of the index because the indexer was behind
+     * @return the dropped messages count
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Returns the number of messages waiting to be indexed
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Splits a text into distinct lowercase words made of letters and digits.
+     * Words longer than MAX_TERM_LENGTH are truncated, both when indexing and when querying, so that a long
+     * query word still narrows the results down.
+     * @param text the text, may be null
+     * @return the words, in order of first occurrence
+     */
+    static String[] tokenize(String text) {
+        if (text == null || text.isEmpty())
+            return new String[0];
+        LinkedHashSet<String> terms = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                terms.add(text.substring(start, Math.min(i, start + MAX_TERM_LENGTH)).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return terms.toArray(new String[0]);
+    }
+
+    /**
+     * Sorted list of the ids of the messages of a segment containing a term
+     */
+    private static class Postings {
+        private int[] ids = new int[2];
+        private int size = 0;
+
+        /**
+         * Appends an id, greater than all the previous ones
+         * @param id the message id
+         */
+        void add(int id) {
+            if (size == ids.length)
+                ids = Arrays.copyOf(ids, size * 2);
+            ids[size++] = id;
+        }
+
+        /**
+         * Checks whether an id is in the list
+         * @param id the message id
+         * @return true if the list contains the id
+         */
+        boolean contains(int id) {
+            return Arrays.binarySearch(ids, 0, size, id) >= 0;
+        }
+    }
+
+    /**
+     * A bounded number of consecutive messages and their term postings.
+     * The message arrays grow as messages are added, up to the capacity, so that a segment closed early by its
+     * byte budget does not hold arrays sized for the maximum number of messages.
+     */
+    private static class Segment {
+        private final int capacity;
+        private long[] timestamps;
+        private String[] channels;
+        private String[] senders;
+        private String[] texts;
+        private final HashMap<String, Postings> terms = new HashMap<>();
+        // channel and sender names are shared by all the messages of the segment
+        private final HashMap<String, String> names = new HashMap<>();
+        private int size = 0;
+        private long bytes = 0;
+
+        /**
+         * Segment constructor
+         * @param capacity the maximum number of messages of the segment
+         */
+        Segment(int capacity) {
+            this.capacity = capacity;
+            int initial = Math.min(capacity, INITIAL_SEGMENT_CAPACITY);
+            timestamps = new long[initial];
+            channels = new String[initial];
+            senders = new String[initial];
+            texts = new String[initial];
+        }
+
+        /**
+         * Doubles the message arrays, up to the capacity of the segment
+         */
+        private void grow() {
+            int length = (int) Math.min(capacity, 2L * texts.length);
+            timestamps = Arrays.copyOf(timestamps, length);
+            channels = Arrays.copyOf(channels, length);
+            senders = Arrays.copyOf(senders, length);
+            texts = Arrays.copyOf(texts, length);
+        }
+
+        /**
+         * Adds a message to the segment. Timestamps are kept non-decreasing, so that a segment can be skipped
+         * by looking at its first and last message.
+         * @param channel the channel the message was sent to
+         * @param message the message
+         * @param messageTerms the distinct words of the message
+         */
+        void add(String channel, ChatMessage message, String[] messageTerms) {
+            if (size == texts.length)
+                grow();
+            int id = size++;
+            timestamps[id] = id == 0 ? message.getTimestamp() : Math.max(message.getTimestamp(), timestamps[id - 1]);
+            channels[id] = names.computeIfAbsent(channel, n -> n);
+            senders[id] = names.computeIfAbsent(message.getSenderUsername(), n -> n);
+            texts[id] = message.getMessage();
+            bytes += cost(message, messageTerms);
+            for (String term : messageTerms)
+                terms.computeIfAbsent(term, t -> new Postings()).add(id);
+        }
+
+        /**
+         * Estimates the memory a message takes in this segment: its text, a posting per word and the words
+         * the segment does not contain yet
+         * @param message the message
+         * @param messageTerms the distinct words of the message
+         * @return the estimated bytes
+         */
+        long cost(ChatMessage message, String[] messageTerms) {
+            String text = message.getMessage();
+            long cost = MESSAGE_OVERHEAD + (text == null ? 0 : 2L * text.length());
+            for (String term : messageTerms) {
+                cost += Integer.BYTES;
+                if (!terms.containsKey(term))
+                    cost += TERM_OVERHEAD + 2L * term.length();
+            }
+            return cost;
+        }
+
+        /**
+         * Returns the postings of the query terms, the shortest first
+         * @param queryTerms the query terms
+         * @return the postings, null if a term does not occur in this segment
+         */
+        Postings[] postings(String[] queryTerms) {
+            Postings[] result = new Postings[queryTerms.length];
+            for (int i = 0; i < queryTerms.length; i++) {
+                result[i] = terms.get(queryTerms[i]);
+                if (result[i] == null)
+                    return null;
+            }
+            Arrays.sort(result, (a, b) -> Integer.compare(a.size, b.size));
+            return result;
+        }
+
+        /**
+         * Checks a message against the query filters
+         * @param id the message id
+         * @param postings the postings of the query terms, the first one already contains the id
+         * @param channel the channel filter, null for any channel
+         * @param sender the sender filter, null for any sender
+         * @param since the oldest timestamp accepted
+         * @param until the newest timestamp accepted
+         * @return true if the message matches
+         */
+        boolean matches(int id, Postings[] postings, String channel, String sender, long since, long until) {
+            if (timestamps[id] < since || timestamps[id] > until)
+                return false;
+            if (channel != null && !channel.equals(channels[id]))
+                return false;
+            if (sender != null && !sender.equals(senders[id]))
+                return false;
+            for (int i = 1; i < postings.length; i++)
+                if (!postings[i].contains(id))
+                    return false;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,479 @@
+package server;
+
+import client.ChatMessage;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+import java.util.stream.Stream;
+
+/**
+ * Append-only log of the accepted messages, written to memory-mapped segment files.
+ * Appending only enqueues the message: a background thread writes the records sequentially, forces them to the
+ * disk according to the fsync policy, rolls over to a new segment when the current one is full and deletes the
+ * segments the retention policy no longer keeps. When the writer falls behind, new messages are dropped rather
+ * than blocking the senders.
+ * Record layout: length of the record body (4 bytes, 0 marks the end of a segment), CRC32C of the body (4 bytes),
+ * then the body: timestamp (8 bytes), channel length (2 bytes), channel, sender length (2 bytes), sender,
+ * text length (4 bytes), text. Reading a segment stops at the first record whose checksum does not match, such as
+ * one torn by a crash, and goes on with the next segment. On startup the writer reopens the last segment and appends
+ * after its last intact record, overwriting a torn one, instead of mapping a new segment on every restart.
+ * Segments the writer or a reader is done with are unmapped right away rather than when they are garbage collected.
+ */
+public class MessageLog {
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int MAX_BATCH = 1024;
+    private static final int RECORD_HEADER = 4 + 4;
+    private static final Object UNSAFE = lookupUnsafe();
+    private static final Method INVOKE_CLEANER = lookupInvokeCleaner();
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final FsyncPolicy fsyncPolicy;
+    private final long fsyncIntervalMillis;
+    private final int retentionSegments;
+    private final long retentionMillis;
+    private final ArrayBlockingQueue<ChatMessage> queue;
+    private final Thread writer;
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder fsyncs = new LongAdder();
+    private final LongAdder writtenBytes = new LongAdder();
+    private long segmentIndex;
+    private MappedByteBuffer segment;
+    private boolean dirty = false;
+    private long lastFsync = System.nanoTime();
+    private volatile boolean running = true;
+
+    /**
+     * MessageLog constructor, reopens the last segment or opens a new one and starts the writer thread
+     * @param directory the directory of the segment files, created if needed
+     * @param segmentBytes the size of a segment file
+     * @param fsyncPolicy when the writes are forced to the disk
+     * @param fsyncIntervalMillis the interval of the INTERVAL policy
+     * @param retentionSegments the number of segments kept, 0 to keep them all
+     * @param retentionMillis segments older than this are deleted, 0 to keep them regardless of their age
+     * @param queueCapacity the number of messages waiting to be written beyond which new messages are dropped
+     */
+    public MessageLog(Path directory, int segmentBytes, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis,
+                      int retentionSegments, long retentionMillis, int queueCapacity) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncIntervalMillis = Math.max(1, fsyncIntervalMillis);
+        this.retentionSegments = retentionSegments;
+        this.retentionMillis = retentionMillis;
+        queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        Files.createDirectories(directory);
+        List<Path> existing = listSegments();
+        if (existing.isEmpty() || !reopen(existing.get(existing.size() - 1))) {
+            segmentIndex = existing.isEmpty() ? 0 : indexOf(existing.get(existing.size() - 1));
+            roll();
+        }
+        writer = new Thread(this::writeLoop, "irc-message-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Opens the log configured by the "irc.log.dir" system property, together with "irc.log.segment.bytes"
+     * (default 64 MiB), "irc.log.fsync" (per-message, batch or interval), "irc.log.fsync.ms" (default 1000),
+     * "irc.log.retention.segments" (default 16), "irc.log.retention.hours" (default 0, no age limit)
+     * and "irc.log.queue" (default 65536)
+     * @return the log, null if "irc.log.dir" is not set
+     */
+    public static MessageLog fromProperties() throws IOException {
+        String dir = System.getProperty("irc.log.dir");
+        if (dir == null || dir.isEmpty())
+            return null;
+        return new MessageLog(Paths.get(dir), Integer.getInteger("irc.log.segment.bytes", 64 << 20),
+                FsyncPolicy.fromString(System.getProperty("irc.log.fsync")), Long.getLong("irc.log.fsync.ms", 1000),
+                Integer.getInteger("irc.log.retention.segments", 16),
+                TimeUnit.HOURS.toMillis(Long.getLong("irc.log.retention.hours", 0)),
+                Integer.getInteger("irc.log.queue", 65536));
+    }
+
+    /**
+     * Enqueues a message for writing, never blocks
+     * @param channel the channel the message was sent to
+     * @param message the message
+     * @return true if the message was enqueued, false if it was dropped because the writer is behind or closed
+     */
+    public boolean append(String channel, ChatMessage message) {
+        if (running && queue.offer(new ChatMessage(message.getSenderUsername(), channel, message.getMessage(), message.getTimestamp(), null)))
+            return true;
+        dropped.increment();
+        return false;
+    }
+
+    /**
+     * Writes the pending messages, forces them to the disk and stops the writer thread
+     */
+    public void close() {
+        running = false;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reads all the messages of the log directory, oldest first
+     * @param directory the directory of the segment files
+     * @param consumer receives the messages, with their channel set
+     */
+    public static void read(Path directory, Consumer<ChatMessage> consumer) throws IOException {
+        if (!Files.isDirectory(directory))
+            return;
+        for (Path path : listSegments(directory)) {
+            MappedByteBuffer buffer;
+            try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+                buffer = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+            }
+            try {
+                scan(buffer, path, consumer);
+            } finally {
+                unmap(buffer);
+            }
+        }
+    }
+
+    /**
+     * Reads the records of a segment from its position up to the end marker or the first corrupt record
+     * @param buffer the segment, left positioned after its last intact record
+     * @param path the segment path, for the warnings
+     * @param consumer receives the messages, with their channel set, null to only find the end of the records
+     */
+    private static void scan(ByteBuffer buffer, Path path, Consumer<ChatMessage> consumer) {
+        while (buffer.remaining() >= RECORD_HEADER) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            if (length == 0) {
+                buffer.position(start);
+                return; // end of the segment
+            }
+            int checksum = buffer.getInt();
+            if (length < 0 || length > buffer.remaining() || checksum(buffer.slice(buffer.position(), length)) != checksum) {
+                ServerLog.warn("Message log segment {} has a corrupt record at offset {}, the rest of the segment is skipped.",
+                        path.getFileName(), start);
+                buffer.position(start);
+                return; // record torn by a crash
+            }
+            ByteBuffer record = buffer.slice(buffer.position(), length);
+            if (consumer != null) {
+                ChatMessage message;
+                try {
+                    long timestamp = record.getLong();
+                    String channel = readString(record, record.getShort());
+                    String sender = readString(record, record.getShort());
+                    String text = readString(record, record.getInt());
+                    message = new ChatMessage(sender, channel, text, timestamp, null);
+                } catch (BufferUnderflowException | NegativeArraySizeException e) {
+                    ServerLog.warn("Message log segment {} has a malformed record, the rest of the segment is skipped.", path.getFileName());
+                    buffer.position(start);
+                    return;
+                }
+                consumer.accept(message);
+            }
+            buffer.position(buffer.position() + length);
+        }
+    }
+
+    /**
+     * Reads all the messages written to this log so far, oldest first
+     * @param consumer receives the messages, with their channel set
+     */
+    public void read(Consumer<ChatMessage> consumer) throws IOException {
+        read(directory, consumer);
+    }
+
+    /**
+     * Writer thread: drains the queue in batches until the log is closed
+     */
+    private void writeLoop() {
+        ArrayList<ChatMessage> batch = new ArrayList<>(MAX_BATCH);
+        try {
+            while (running || !queue.isEmpty()) {
+                long wait = fsyncPolicy == FsyncPolicy.INTERVAL ? Math.min(fsyncIntervalMillis, 100) : 100;
+                ChatMessage first = queue.poll(wait, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    for (ChatMessage m : batch) {
+                        write(m);
+                        if (fsyncPolicy == FsyncPolicy.PER_MESSAGE)
+                            force();
+                    }
+                    batch.clear();
+                    if (fsyncPolicy == FsyncPolicy.BATCH)
+                        force();
+                }
+                if (fsyncPolicy == FsyncPolicy.INTERVAL
+                        && System.nanoTime() - lastFsync >= TimeUnit.MILLISECONDS.toNanos(fsyncIntervalMillis))
+                    force();
+            }
+            force();
+            unmap(segment);
+        } catch (IOException e) {
+            running = false;
+            ServerLog.error("Message log disabled: {}", e.getMessage());
+        } catch (InterruptedException e) {
+            running = false;
+        }
+    }
+
+    /**
+     * Writes a record to the current segment, rolling over to a new one if it does not fit
+     * @param message the message, with its channel set
+     */
+    private void write(ChatMessage message) throws IOException {
+        byte[] channel = message.getChannel().getBytes(StandardCharsets.UTF_8);
+        byte[] sender = message.getSenderUsername().getBytes(StandardCharsets.UTF_8);
+        byte[] text = message.getMessage().getBytes(StandardCharsets.UTF_8);
+        int length = 8 + 2 + channel.length + 2 + sender.length + 4 + text.length;
+        if (channel.length > Short.MAX_VALUE || sender.length > Short.MAX_VALUE || RECORD_HEADER + length + 4 > segmentBytes) {
+            dropped.increment();
+            return;
+        }
+        // keep room for the zero length marking the end of the segment
+        if (segment.remaining() < RECORD_HEADER + length + 4) {
+            force();
+            roll();
+        }
+        int start = segment.position();
+        segment.putInt(length).putInt(0).putLong(message.getTimestamp())
+                .putShort((short) channel.length).put(channel)
+                .putShort((short) sender.length).put(sender)
+                .putInt(text.length).put(text);
+        segment.putInt(start + 4, checksum(segment.slice(start + RECORD_HEADER, length)));
+        dirty = true;
+        appended.increment();
+        writtenBytes.add(RECORD_HEADER + length);
+    }
+
+    /**
+     * Computes the checksum of a record body
+     * @param body the body
+     * @return the CRC32C of the body
+     */
+    private static int checksum(ByteBuffer body) {
+        CRC32C crc = new CRC32C();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Forces the written records of the current segment to the disk
+     */
+    private void force() {
+        lastFsync = System.nanoTime();
+        if (!dirty)
+            return;
+        segment.force();
+        dirty = false;
+        fsyncs.increment();
+    }
+
+    /**
+     * Opens the next segment file, unmapping the current one, and applies the retention policy to the older ones
+     */
+    private void roll() throws IOException {
+        segmentIndex++;
+        Path path = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, segmentIndex, SEGMENT_SUFFIX));
+        MappedByteBuffer retired = segment;
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = file.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+        if (retired != null)
+            unmap(retired);
+        applyRetention();
+    }
+
+    /**
+     * Reopens the last segment of the directory to append after its last intact record.
+     * Whatever follows that record, such as a record torn by a crash, is cleared.
+     * @param path the last segment
+     * @return true if the segment was reopened, false if its size is not the configured one
+     */
+    private boolean reopen(Path path) throws IOException {
+        if (Files.size(path) != segmentBytes)
+            return false;
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = file.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+        segmentIndex = indexOf(path);
+        scan(segment, path, null);
+        int end = segment.position();
+        if (segment.remaining() >= 4 && segment.getInt(end) != 0) {
+            byte[] zeros = new byte[64 * 1024];
+            while (segment.hasRemaining())
+                segment.put(zeros, 0, Math.min(zeros.length, segment.remaining()));
+            segment.position(end);
+            dirty = true;
+            force();
+        }
+        applyRetention();
+        return true;
+    }
+
+    /**
+     * Unmaps a segment right away, when the runtime allows it; otherwise the mapping is released once the buffer
+     * is garbage collected. The buffer must not be used afterwards.
+     * @param buffer the segment
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        if (INVOKE_CLEANER == null)
+            return;
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException | IllegalArgumentException ignored) {
+            // released by the garbage collector
+        }
+    }
+
+    /**
+     * Looks up sun.misc.Unsafe, whose invokeCleaner is the only way to unmap a buffer before it is garbage collected
+     * @return the Unsafe instance, or null if the runtime does not give access to it
+     */
+    private static Object lookupUnsafe() {
+        try {
+            Field theUnsafe = Class.forName("sun.misc.Unsafe").getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            return theUnsafe.get(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Looks up sun.misc.Unsafe.invokeCleaner, which only exists on Java 9 and later
+     * @return the method, or null if it is not available
+     */
+    private static Method lookupInvokeCleaner() {
+        if (UNSAFE == null)
+            return null;
+        try {
+            return UNSAFE.getClass().getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Deletes the oldest segments beyond the retention count and those older than the retention time,
+     * never the current one
+     */
+    private void applyRetention() throws IOException {
+        List<Path> segments = listSegments();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < segments.size() - 1; i++) {
+            Path path = segments.get(i);
+            boolean tooMany = retentionSegments > 0 && segments.size() - i > retentionSegments;
+            boolean tooOld = retentionMillis > 0 && now - Files.getLastModifiedTime(path).toMillis() > retentionMillis;
+            if (tooMany || tooOld)
+                Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * Lists the segment files of this log, oldest first
+     * @return the segment paths
+     */
+    private List<Path> listSegments() throws IOException {
+        return listSegments(directory);
+    }
+
+    /**
+     * Lists the segment files of a directory, oldest first
+     * @param directory the directory
+     * @return the segment paths
+     */
+    private static List<Path> listSegments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.getFileName().toString().startsWith(SEGMENT_PREFIX)
+                            && p.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    /**
+     * Returns the index of a segment from its file name
+     * @param segment the segment path
+     * @return the index
+     */
+    private static long indexOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * Reads a UTF-8 string from a record
+     * @param record the record
+     * @param length the length of the string in bytes
+     * @return the string
+     */
+    private static String readString(ByteBuffer record, int length) {
+        byte[] bytes = new byte[length];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the number of messages written to the log
+     * @return the appended messages count
+     */
+    public long getAppended() {
+        return appended.sum();
+    }
+
+    /**
+     * Returns the number of messages dropped because the writer was behind, or because they did not fit a segment
+     * @return the dropped messages count
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Returns the number of times the writes were forced to the disk
+     * @return the fsync count
+     */
+    public long getFsyncs() {
+        return fsyncs.sum();
+    }
+
+    /**
+     * Returns the number of bytes written to the segments
+     * @return the written bytes
+     */
+    public long getWrittenBytes() {
+        return writtenBytes.sum();
+    }
+
+    /**
+     * Returns the number of messages waiting to be written
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+}
@@ -0,0 +1,140 @@
+package server;
+
+import client.IRCClientInterface;
+import transport.RpcEndpoint;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * A client connection of the NIO transport.
+ * Reads and writes happen on the selector thread, other threads only enqueue frames and wake the selector up.
+ */
+class NioConnection {
+    private static final int READ_BUFFER_SIZE = 8192;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final ConcurrentLinkedQueue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+    private final RpcEndpoint endpoint;
+    private final IRCServer server;
+    private final NioSession session;
+    private final IRCClientInterface client;
+    private final Executor executor;
+    private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private volatile boolean closed = false;
+
+    /**
+     * NioConnection constructor
+     * @param channel the connected socket
+     * @param key the selection key of the socket
+     * @param server the server receiving the calls
+     * @param executor the executor running the calls
+     */
+    NioConnection(SocketChannel channel, SelectionKey key, IRCServer server, Executor executor) {
+        this.channel = channel;
+        this.key = key;
+        this.executor = executor;
+        this.server = server;
+        session = new NioSession(server);
+        endpoint = new RpcEndpoint(IRCServerInterface.class, session, this::enqueue, executor);
+        client = endpoint.proxy(IRCClientInterface.class);
+        session.setClient(client);
+        server.addConnection(client, this);
+    }
+
+    /**
+     * Reads from the socket and hands every complete frame to the endpoint.
+     * The buffer grows to hold a large frame and goes back to its initial size once the frame is handled,
+     * so an idle connection never keeps a large buffer.
+     */
+    void read() throws IOException {
+        if (channel.read(readBuffer) < 0) {
+            close();
+            return;
+        }
+        readBuffer.flip();
+        while (readBuffer.remaining() >= 4) {
+            int length = readBuffer.getInt(readBuffer.position());
+            if (length <= 0 || length > RpcEndpoint.MAX_FRAME_LENGTH)
+                throw new IOException("Invalid frame length " + length + ".");
+            if (readBuffer.remaining() < 4 + length) {
+                if (readBuffer.capacity() < 4 + length) {
+                    ByteBuffer larger = ByteBuffer.allocate(4 + length);
+                    larger.put(readBuffer);
+                    readBuffer = larger;
+                    return;
+                }
+                break;
+            }
+            byte[] payload = new byte[length];
+            readBuffer.position(readBuffer.position() + 4);
+            readBuffer.get(payload);
+            endpoint.onFrame(payload);
+        }
+        readBuffer.compact();
+        if (readBuffer.capacity() > READ_BUFFER_SIZE && readBuffer.position() <= READ_BUFFER_SIZE) {
+            readBuffer.flip();
+            readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE).put(readBuffer);
+        }
+    }
+
+    /**
+     * Queues a frame for writing, safe to call from any thread
+     * @param frame the frame, length prefix included
+     */
+    private void enqueue(byte[] frame) throws IOException {
+        if (closed)
+            throw new IOException("Connection closed.");
+        writeQueue.add(ByteBuffer.wrap(frame));
+        try {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        } catch (CancelledKeyException e) {
+            throw new IOException("Connection closed.", e);
+        }
+        key.selector().wakeup();
+    }
+
+    /**
+     * Writes the queued frames until the queue is empty or the socket buffer is full
+     */
+    void flush() throws IOException {
+        ByteBuffer frame;
+        while ((frame = writeQueue.peek()) != null) {
+            channel.write(frame);
+            if (frame.hasRemaining())
+                return; // socket buffer full, wait for the next OP_WRITE
+            writeQueue.poll();
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        // a frame may have been queued after the loop ended
+        if (!writeQueue.isEmpty())
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Closes the connection, failing the pending callbacks and removing the client from the server.
+     * Safe to call from any thread.
+     */
+    void close() {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+        }
+        server.removeConnection(client);
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ignored) {}
+        // the socket is only released once the selector deregisters the cancelled key
+        key.selector().wakeup();
+        endpoint.close();
+        // removing the client makes remote calls, keep them off the selector thread
+        executor.execute(session::onClose);
+    }
+}
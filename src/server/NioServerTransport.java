@@ -0,0 +1,109 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Accepts the clients on a plain TCP port, using a single selector thread for all the connections.
+ * Each client keeps one connection open, carrying both its calls and the server's callbacks.
+ * The calls are run on the callback executor, so the selector thread never blocks.
+ */
+public class NioServerTransport implements ServerTransport, Runnable {
+    private final int port;
+    private IRCServer server;
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private ExecutorService dispatchExecutor;
+
+    /**
+     * NioServerTransport constructor
+     * @param port the TCP port to listen on
+     */
+    public NioServerTransport(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Opens the listening socket and starts the selector thread
+     * @param server the server
+     */
+    @Override
+    public void start(IRCServer server) throws IOException {
+        this.server = server;
+        dispatchExecutor = ServerExecutors.newCallbackExecutor("irc-nio-dispatch");
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        new Thread(this, "irc-nio-selector").start();
+    }
+
+    /**
+     * Selector loop
+     */
+    @Override
+    public void run() {
+        while (serverChannel.isOpen()) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                ServerLog.error("Selector failure on {}.", getPort(), e);
+                return;
+            }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid())
+                    continue;
+                if (key.isAcceptable()) {
+                    accept();
+                    continue;
+                }
+                NioConnection connection = (NioConnection) key.attachment();
+                try {
+                    if (key.isReadable())
+                        connection.read();
+                    if (key.isValid() && key.isWritable())
+                        connection.flush();
+                } catch (IOException | CancelledKeyException e) {
+                    // also closed by the server when it removes the client, possibly while the key is being handled
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Accepts a pending connection and registers it with the selector
+     */
+    private void accept() {
+        try {
+            SocketChannel channel = serverChannel.accept();
+            if (channel == null)
+                return;
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new NioConnection(channel, key, server, dispatchExecutor));
+        } catch (IOException e) {
+            ServerLog.warn("Unable to accept connection: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the port the transport listens on
+     * @return the port
+     */
+    public int getPort() {
+        return serverChannel == null ? port : serverChannel.socket().getLocalPort();
+    }
+}
@@ -0,0 +1,143 @@
+package server;
+
+import client.ChatMessage;
+import client.IRCClientInterface;
+
+import java.rmi.RemoteException;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Server side of a NIO connection: forwards the calls to the server, passing the connection's callback proxy
+ * instead of looking the client up in the RMI registry, and removes the client when the connection closes.
+ */
+class NioSession implements IRCServerInterface {
+    private final IRCServer server;
+    private IRCClientInterface client;
+    private volatile String username;
+
+    /**
+     * NioSession constructor
+     * @param server the server receiving the calls
+     */
+    NioSession(IRCServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Sets the proxy used to call the client back
+     * @param client the callback proxy of the connection
+     */
+    void setClient(IRCClientInterface client) {
+        this.client = client;
+    }
+
+    /**
+     * Removes the client of this connection from the server, unless its username was taken over by someone else
+     */
+    void onClose() {
+        String u = username;
+        if (u != null && server.getClient(u) == client)
+            server.removeClient(u);
+    }
+
+    @Override
+    public int connect(String username, PublicKey publicKey, byte[] signedFingerprint) throws RemoteException {
+        int seed = server.connect(username, publicKey, signedFingerprint, client);
+        if (seed != 0 && seed != -1)
+            this.username = username;
+        return seed;
+    }
+
+    @Override
+    public SessionHandshake connectWithSession(String username, PublicKey publicKey, PublicKey sessionKey, byte[] signedFingerprint) throws RemoteException {
+        SessionHandshake handshake = server.connectWithSession(username, publicKey, sessionKey, signedFingerprint, client);
+        if (handshake != null)
+            this.username = username;
+        return handshake;
+    }
+
+    /**
+     * Connects the client, always calling it back through the connection: a callback object sent over the
+     * connection could not be called, so the argument is ignored
+     */
+    @Override
+    public int connect(String username, PublicKey publicKey, byte[] signedFingerprint, IRCClientInterface ignored) throws RemoteException {
+        return connect(username, publicKey, signedFingerprint);
+    }
+
+    /**
+     * Connects the client agreeing on a session key, always calling it back through the connection: a callback
+     * object sent over the connection could not be called, so the argument is ignored
+     */
+    @Override
+    public SessionHandshake connectWithSession(String username, PublicKey publicKey, PublicKey sessionKey, byte[] signedFingerprint, IRCClientInterface ignored) throws RemoteException {
+        return connectWithSession(username, publicKey, sessionKey, signedFingerprint);
+    }
+
+    @Override
+    public String getGreeting() {
+        return server.getGreeting();
+    }
+
+    @Override
+    public ArrayList<String> getSignatureAlgorithms() {
+        return server.getSignatureAlgorithms();
+    }
+
+    @Override
+    public ArrayList<String> getUsers() throws RemoteException {
+        return server.getUsers();
+    }
+
+    @Override
+    public ArrayList<String> getChannelDescriptions() throws RemoteException {
+        return server.getChannelDescriptions();
+    }
+
+    @Override
+    public int joinChannel(String username, String channelName, byte[] signedFingerprint) {
+        return server.joinChannel(username, channelName, signedFingerprint);
+    }
+
+    @Override
+    public void leaveChannel(String username, String channelName, byte[] signedFingerprint) {
+        server.leaveChannel(username, channelName, signedFingerprint);
+    }
+
+    @Override
+    public int joinPrivateChat(String username, String targetUsername, byte[] signedFingerprint) {
+        return server.joinPrivateChat(username, targetUsername, signedFingerprint);
+    }
+
+    @Override
+    public void disconnect(String username, byte[] signedFingerprint) throws RemoteException {
+        server.disconnect(username, signedFingerprint);
+    }
+
+    @Override
+    public long renewLease(String username, byte[] signedFingerprint) throws RemoteException {
+        return server.renewLease(username, signedFingerprint);
+    }
+
+    @Override
+    public void sendMessage(String username, String channel, String message, byte[] signedFingerprint) throws RemoteException {
+        server.sendMessage(username, channel, message, signedFingerprint);
+    }
+
+    @Override
+    public void sendMessage(ChatMessage message) throws RemoteException {
+        server.sendMessage(message);
+    }
+
+    @Override
+    public int[] sendMessages(List<ChatMessage> messages) throws RemoteException {
+        return server.sendMessages(messages);
+    }
+
+    @Override
+    public ArrayList<ChatMessage> search(SearchQuery query) throws RemoteException {
+        return server.search(query);
+    }
+}
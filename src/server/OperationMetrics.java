@@ -0,0 +1,86 @@
+package server;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Call count, rate and latency histogram of a server operation
+ */
+public class OperationMetrics implements OperationMetricsMBean {
+    private static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final String name;
+    private final Histogram latencies = new Histogram();
+    private long windowStart = System.nanoTime();
+    private long windowStartCount = 0;
+    private double rate = 0;
+
+    /**
+     * OperationMetrics constructor
+     * @param name the name of the operation
+     */
+    public OperationMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Records a call
+     * @param startNanos the System.nanoTime() at which the call started
+     */
+    public void record(long startNanos) {
+        latencies.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Returns the name of the operation
+     * @return the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getCount() {
+        return latencies.getCount();
+    }
+
+    @Override
+    public synchronized double getRatePerSecond() {
+        long now = System.nanoTime();
+        long count = latencies.getCount();
+        long elapsed = now - windowStart;
+        if (elapsed >= RATE_WINDOW_NANOS) {
+            rate = (count - windowStartCount) * 1e9 / elapsed;
+            windowStart = now;
+            windowStartCount = count;
+        } else if (windowStartCount == 0 && rate == 0 && elapsed > 0) {
+            // first window not over yet
+            return count * 1e9 / elapsed;
+        }
+        return rate;
+    }
+
+    @Override
+    public double getMeanMicros() {
+        return latencies.getMean() / 1000;
+    }
+
+    @Override
+    public double getP50Micros() {
+        return latencies.getPercentile(0.5) / 1000.0;
+    }
+
+    @Override
+    public double getP99Micros() {
+        return latencies.getPercentile(0.99) / 1000.0;
+    }
+
+    @Override
+    public double getP999Micros() {
+        return latencies.getPercentile(0.999) / 1000.0;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return latencies.getMax() / 1000.0;
+    }
+}
@@ -0,0 +1,48 @@
+package server;
+
+/**
+ * JMX view of the metrics of a server operation
+ */
+public interface OperationMetricsMBean {
+    /**
+     * Returns the number of calls since the server started
+     * @return the calls count
+     */
+    long getCount();
+
+    /**
+     * Returns the call rate, measured over the last window of at least 10 seconds
+     * @return the calls per second
+     */
+    double getRatePerSecond();
+
+    /**
+     * Returns the mean latency
+     * @return the mean in microseconds
+     */
+    double getMeanMicros();
+
+    /**
+     * Returns the median latency
+     * @return the 50th percentile in microseconds
+     */
+    double getP50Micros();
+
+    /**
+     * Returns the 99th percentile latency
+     * @return the 99th percentile in microseconds
+     */
+    double getP99Micros();
+
+    /**
+     * Returns the 99.9th percentile latency
+     * @return the 99.9th percentile in microseconds
+     */
+    double getP999Micros();
+
+    /**
+     * Returns the largest latency
+     * @return the maximum in microseconds
+     */
+    double getMaxMicros();
+}
@@ -0,0 +1,29 @@
+package server;
+
+/**
+ * What to do when a client's outbound queue is full
+ */
+public enum OverflowPolicy {
+    /** Discard the oldest pending message to make room for the new one */
+    DROP_OLDEST,
+    /** Discard the new message */
+    DROP_NEWEST,
+    /** Disconnect the client from the server */
+    DISCONNECT;
+
+    /**
+     * Parses a policy name such as "drop-oldest", "drop-newest" or "disconnect"
+     * @param name the policy name
+     * @return the policy, DROP_OLDEST if the name is null or unknown
+     */
+    public static OverflowPolicy fromString(String name) {
+        if (name == null)
+            return DROP_OLDEST;
+        try {
+            return valueOf(name.trim().toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            ServerLog.warn("Unknown overflow policy {}, using drop-oldest.", name);
+            return DROP_OLDEST;
+        }
+    }
+}
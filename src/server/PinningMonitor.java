@@ -0,0 +1,80 @@
+package server;
+
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Watches for virtual threads pinned to their carrier thread, which happens when a virtual thread blocks inside a
+ * synchronized block or a native frame and keeps a platform thread busy for the whole remote call.
+ * The JFR "jdk.VirtualThreadPinned" events longer than "irc.pinning.threshold.ms" milliseconds (default 20)
+ * are counted and logged with the frame that blocked.
+ */
+class PinningMonitor {
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+    private final LongAdder pinned = new LongAdder();
+    private RecordingStream stream;
+
+    /**
+     * Starts the event stream in background
+     * @return true if the monitor is running, false if the runtime does not provide the events
+     */
+    boolean start() {
+        try {
+            stream = new RecordingStream();
+            stream.enable(PINNED_EVENT)
+                    .withThreshold(Duration.ofMillis(Long.getLong("irc.pinning.threshold.ms", 20)))
+                    .withStackTrace();
+            stream.onEvent(PINNED_EVENT, event -> {
+                pinned.increment();
+                ServerLog.warn("Virtual thread pinned for {} ms in {}.", event.getDuration().toMillis(),
+                        blockingFrame(event.getStackTrace()));
+            });
+            stream.startAsync();
+            return true;
+        } catch (IllegalStateException | SecurityException e) {
+            ServerLog.warn("Unable to monitor pinned virtual threads: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Stops the event stream
+     */
+    void close() {
+        if (stream != null)
+            stream.close();
+    }
+
+    /**
+     * Returns the number of pinning events longer than the threshold
+     * @return the pinned threads count
+     */
+    long getPinnedThreads() {
+        return pinned.sum();
+    }
+
+    /**
+     * Finds the first frame of the server code in the stack of the pinned thread
+     * @param stackTrace the stack trace of the event, may be null
+     * @return the method and line of the frame, or of the top frame if no server code is on the stack
+     */
+    private static String blockingFrame(RecordedStackTrace stackTrace) {
+        if (stackTrace == null || stackTrace.getFrames().isEmpty())
+            return "an unknown frame";
+        List<RecordedFrame> frames = stackTrace.getFrames();
+        RecordedFrame frame = frames.get(0);
+        for (RecordedFrame f : frames) {
+            if (f.getMethod().getType().getName().startsWith("server.")) {
+                frame = f;
+                break;
+            }
+        }
+        return frame.getMethod().getType().getName() + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+    }
+}
@@ -0,0 +1,78 @@
+package server;
+
+import java.util.Arrays;
+
+/**
+ * Sliding window of the request sequence numbers accepted from a client.
+ * A sequence number is accepted once, as long as it is newer than the first one of the session and not
+ * older than the window size with respect to the highest number seen so far.
+ */
+class ReplayWindow {
+    private final long[] bits;
+    private final int size;
+    private final long first;
+    private long highest;
+
+    /**
+     * ReplayWindow constructor
+     * @param first the first sequence number of the session
+     * @param size the number of sequence numbers tracked behind the highest one, rounded up to a multiple of 64
+     */
+    ReplayWindow(long first, int size) {
+        this.size = Math.max(64, (size + 63) / 64 * 64);
+        this.bits = new long[this.size / 64];
+        this.first = first;
+        this.highest = first - 1;
+    }
+
+    /**
+     * Checks whether a sequence number could be accepted, without marking it
+     * @param sequence the sequence number
+     * @return true if the sequence number has not been seen and is inside the window
+     */
+    synchronized boolean isFresh(long sequence) {
+        if (sequence < first)
+            return false;
+        if (sequence > highest)
+            return true;
+        if (highest - sequence >= size)
+            return false;
+        return !isSet(sequence);
+    }
+
+    /**
+     * Accepts a sequence number, sliding the window forward if needed
+     * @param sequence the sequence number
+     * @return true if the sequence number was accepted, false if it is a replay or too old
+     */
+    synchronized boolean accept(long sequence) {
+        if (!isFresh(sequence))
+            return false;
+        if (sequence > highest) {
+            if (sequence - highest >= size) {
+                Arrays.fill(bits, 0);
+            } else {
+                for (long s = highest + 1; s <= sequence; s++)
+                    clear(s);
+            }
+            highest = sequence;
+        }
+        set(sequence);
+        return true;
+    }
+
+    private boolean isSet(long sequence) {
+        int slot = (int) Math.floorMod(sequence, (long) size);
+        return (bits[slot >>> 6] & (1L << (slot & 63))) != 0;
+    }
+
+    private void set(long sequence) {
+        int slot = (int) Math.floorMod(sequence, (long) size);
+        bits[slot >>> 6] |= 1L << (slot & 63);
+    }
+
+    private void clear(long sequence) {
+        int slot = (int) Math.floorMod(sequence, (long) size);
+        bits[slot >>> 6] &= ~(1L << (slot & 63));
+    }
+}
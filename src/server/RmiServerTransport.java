@@ -0,0 +1,28 @@
+package server;
+
+import java.io.IOException;
+import java.rmi.Naming;
+
+/**
+ * Publishes the server in the RMI registry, clients call it through RMI and export their own callback object
+ */
+public class RmiServerTransport implements ServerTransport {
+    private final String serverName;
+
+    /**
+     * RmiServerTransport constructor
+     * @param serverName the name under which the server is bound in the registry
+     */
+    public RmiServerTransport(String serverName) {
+        this.serverName = serverName;
+    }
+
+    /**
+     * Binds the server in the registry
+     * @param server the server
+     */
+    @Override
+    public void start(IRCServer server) throws IOException {
+        Naming.rebind(serverName, server);
+    }
+}
@@ -0,0 +1,96 @@
+package server;
+
+import java.io.Serializable;
+
+/**
+ * A search over the indexed channel messages: the words every result must contain, optional channel, sender
+ * and time filters, and the page of results wanted. Results are returned newest first.
+ */
+public class SearchQuery implements Serializable {
+    public static final int MAX_LIMIT = 100;
+    private static final long serialVersionUID = 1L;
+
+    private final String text;
+    private final String channel;
+    private final String sender;
+    private final long since;
+    private final long until;
+    private final int offset;
+    private final int limit;
+
+    /**
+     * SearchQuery constructor
+     * @param text the words the messages must contain, case insensitive; null or empty to match every message
+     * @param channel the channel the messages were sent to, null for any channel
+     * @param sender the sender of the messages, null for any sender
+     * @param since the oldest timestamp accepted, in milliseconds since the epoch, 0 for no limit
+     * @param until the newest timestamp accepted, in milliseconds since the epoch, 0 for no limit
+     * @param offset the number of matching messages to skip, for paging
+     * @param limit the maximum number of messages returned, at most MAX_LIMIT
+     */
+    public SearchQuery(String text, String channel, String sender, long since, long until, int offset, int limit) {
+        this.text = text;
+        this.channel = channel;
+        this.sender = sender;
+        this.since = since;
+        this.until = until;
+        this.offset = offset;
+        this.limit = limit;
+    }
+
+    /**
+     * Returns the words the messages must contain
+     * @return the text, may be null
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Returns the channel filter
+     * @return the channel name, null for any channel
+     */
+    public String getChannel() {
+        return channel;
+    }
+
+    /**
+     * Returns the sender filter
+     * @return the sender username, null for any sender
+     */
+    public String getSender() {
+        return sender;
+    }
+
+    /**
+     * Returns the oldest timestamp accepted
+     * @return the timestamp in milliseconds since the epoch, 0 for no limit
+     */
+    public long getSince() {
+        return since;
+    }
+
+    /**
+     * Returns the newest timestamp accepted
+     * @return the timestamp in milliseconds since the epoch, 0 for no limit
+     */
+    public long getUntil() {
+        return until;
+    }
+
+    /**
+     * Returns the number of matching messages to skip
+     * @return the offset
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the maximum number of messages returned
+     * @return the page size
+     */
+    public int getLimit() {
+        return limit;
+    }
+}
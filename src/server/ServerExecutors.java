@@ -0,0 +1,90 @@
+package server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ServerExecutors {
+    private static final Method VIRTUAL_EXECUTOR_FACTORY = lookupVirtualExecutorFactory();
+
+    private ServerExecutors() {}
+
+    /**
+     * Checks whether the callback executors run their tasks on virtual threads: "irc.executor" is "virtual"
+     * and the runtime supports them
+     * @return true if virtual threads are used
+     */
+    public static boolean isVirtual() {
+        return VIRTUAL_EXECUTOR_FACTORY != null && "virtual".equalsIgnoreCase(System.getProperty("irc.executor"));
+    }
+
+    /**
+     * Creates the executor used to run outbound client callbacks.
+     * The mode is selected with the "irc.executor" system property: "virtual" runs every task on its own
+     * virtual thread (when the runtime supports it), anything else uses a fixed pool of platform threads
+     * whose size is read from "irc.executor.threads".
+     * @param name the prefix used to name platform threads
+     * @return the executor
+     */
+    public static ExecutorService newCallbackExecutor(String name) {
+        return newCallbackExecutor(name, Integer.getInteger("irc.executor.threads", Runtime.getRuntime().availableProcessors() * 4));
+    }
+
+    /**
+     * Creates an executor for outbound client callbacks with the given number of platform threads.
+     * Like newCallbackExecutor(String), it uses virtual threads instead when "irc.executor" is "virtual".
+     * @param name the prefix used to name platform threads
+     * @param threads the number of platform threads
+     * @return the executor
+     */
+    public static ExecutorService newCallbackExecutor(String name, int threads) {
+        if (isVirtual()) {
+            ExecutorService executor = newVirtualThreadExecutor();
+            if (executor != null)
+                return executor;
+        } else if ("virtual".equalsIgnoreCase(System.getProperty("irc.executor"))) {
+            ServerLog.warn("Virtual threads are not supported by this runtime, using platform threads.");
+        }
+        return Executors.newFixedThreadPool(Math.max(1, threads), daemonThreadFactory(name));
+    }
+
+    /**
+     * Returns a thread factory creating named daemon threads
+     * @param name the prefix of the thread names
+     * @return the thread factory
+     */
+    public static ThreadFactory daemonThreadFactory(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Creates an executor running every task on its own virtual thread
+     * @return a virtual thread executor, or null if the runtime does not provide one
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) VIRTUAL_EXECUTOR_FACTORY.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Looks up Executors.newVirtualThreadPerTaskExecutor, which only exists on Java 21 and later
+     * @return the factory method, or null if the runtime does not provide one
+     */
+    private static Method lookupVirtualExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package server;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous server log.
+ * Logging a record only fills a slot of a preallocated ring with the format and its arguments: the formatting,
+ * the string building and the writing happen on a background thread, which drains the ring to the console or to
+ * the file named by "irc.logging.file". When the writer falls behind, new records are dropped and counted.
+ * Formats use "{}" placeholders, replaced by the arguments in order.
+ * The level is read from "irc.logging.level" (error, warn, info or debug, default info) and the chat message
+ * bodies from "irc.logging.bodies": "full" (default), "hidden", or a number N to log one body out of N on average,
+ * picked at random so that sampling shares no counter between the sending threads.
+ */
+public final class ServerLog {
+    /**
+     * Severity of a record
+     */
+    public enum Level {
+        ERROR, WARN, INFO, DEBUG
+    }
+
+    private static final String HIDDEN_BODY = "<hidden>";
+    private static final ServerLog INSTANCE = new ServerLog(Integer.getInteger("irc.logging.ring", 8192));
+
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Level level;
+    private final int bodySampling;
+    private volatile long consumed = 0;
+    private PrintWriter out;
+    private PrintWriter err;
+
+    /**
+     * A record of the ring. Producers fill the fields, then publish the slot by writing its sequence.
+     */
+    private static final class Slot {
+        private volatile long sequence = 0;
+        private Level level;
+        private String format;
+        private Object a;
+        private Object b;
+        private Object c;
+        private Throwable error;
+    }
+
+    /**
+     * ServerLog constructor, starts the writer thread
+     * @param capacity the number of records of the ring, rounded up to a power of two
+     */
+    private ServerLog(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        slots = new Slot[size];
+        for (int i = 0; i < size; i++)
+            slots[i] = new Slot();
+        mask = size - 1;
+        level = parseLevel(System.getProperty("irc.logging.level"));
+        bodySampling = parseBodySampling(System.getProperty("irc.logging.bodies"));
+        String file = System.getProperty("irc.logging.file");
+        try {
+            if (file != null && !file.isEmpty())
+                out = err = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            System.err.println("[WARN] Unable to open log file " + file + ", logging to the console.");
+        }
+        if (out == null) {
+            out = new PrintWriter(System.out);
+            err = new PrintWriter(System.err);
+        }
+        Thread writer = new Thread(this::writeLoop, "irc-server-log");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::drain, "irc-server-log-flush"));
+    }
+
+    /**
+     * Logs an error
+     * @param format the format, with "{}" placeholders
+     * @param a the first argument
+     * @param error the exception, its stack trace is printed after the record
+     */
+    public static void error(String format, Object a, Throwable error) {
+        INSTANCE.log(Level.ERROR, format, a, null, null, error);
+    }
+
+    /**
+     * Logs an error
+     * @param format the format, with "{}" placeholders
+     * @param a the first argument
+     */
+    public static void error(String format, Object a) {
+        INSTANCE.log(Level.ERROR, format, a, null, null, null);
+    }
+
+    /**
+     * Logs a warning
+     * @param message the message
+     */
+    public static void warn(String message) {
+        INSTANCE.log(Level.WARN, message, null, null, null, null);
+    }
+
+    /**
+     * Logs a warning
+     * @param format the format, with "{}" placeholders
+     * @param a the first argument
+     */
+    public static void warn(String format, Object a) {
+        INSTANCE.log(Level.WARN, format, a, null, null, null);
+    }
+
+    /**
+     * Logs a warning
+     * @param format the format, with "{}" placeholders
+     * @param a the first argument
+     * @param b the second argument
+     */
+    public static void warn(String format, Object a, Object b) {
+        INSTANCE.log(Level.WARN, format, a, b, null, null);
+    }
+
+    /**
+     * Logs an information
+     * @param format the format, with "{}" placeholders
+     * @param a the first argument
+     */
+    public static void info(String format, Object a) {
+        INSTANCE.log(Level.INFO, format, a, null, null, null);
+    }
+
+    /**
+     * Logs an information
+     * @param format the format, with "{}" placeholders
+     * @param a the first argument
+     * @param b the second argument
+     */
+    public static void info(String format, Object a, Object b) {
+        INSTANCE.log(Level.INFO, format, a, b, null, null);
+    }
+
+    /**
+     * Logs an information
+     * @param format the format, with "{}" placeholders
+     * @param a the first argument
+     * @param b the second argument
+     * @param c the third argument
+     */
+    public static void info(String format, Object a, Object b, Object c) {
+        INSTANCE.log(Level.INFO, format, a, b, c, null);
+    }
+
+    /**
+     * Logs a debugging information
+     * @param format the format, with "{}" placeholders
+     * @param a the first argument
+     * @param b the second argument
+     * @param c the third argument
+     */
+    public static void debug(String format, Object a, Object b, Object c) {
+        INSTANCE.log(Level.DEBUG, format, a, b, c, null);
+    }
+
+    /**
+     * Checks whether records of a level are written
+     * @param level the level
+     * @return true if the level is enabled
+     */
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(INSTANCE.level) <= 0;
+    }
+
+    /**
+     * Applies the "irc.logging.bodies" policy to a chat message body, without allocating
+     * @param body the message text
+     * @return the text, or a placeholder if the body is hidden or not sampled
+     */
+    public static String body(String body) {
+        int sampling = INSTANCE.bodySampling;
+        if (sampling == 1)
+            return body;
+        if (sampling == 0 || ThreadLocalRandom.current().nextInt(sampling) != 0)
+            return HIDDEN_BODY;
+        return body;
+    }
+
+    /**
+     * Returns the number of records dropped because the ring was full
+     * @return the dropped records count
+     */
+    public static long getDroppedRecords() {
+        return INSTANCE.dropped.get();
+    }
+
+    /**
+     * Returns the number of records written since the server started
+     * @return the written records count
+     */
+    public static long getWrittenRecords() {
+        return INSTANCE.consumed;
+    }
+
+    /**
+     * Claims a slot of the ring and publishes the record, dropping it if the ring is full
+     * @param level the severity
+     * @param format the format
+     * @param a the first argument
+     * @param b the second argument
+     * @param c the third argument
+     * @param error the exception, may be null
+     */
+    private void log(Level level, String format, Object a, Object b, Object c, Throwable error) {
+        if (level.compareTo(this.level) > 0)
+            return;
+        long sequence;
+        do {
+            sequence = next.get();
+            if (sequence - consumed >= slots.length) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!next.compareAndSet(sequence, sequence + 1));
+        Slot slot = slots[(int) (sequence & mask)];
+        slot.level = level;
+        slot.format = format;
+        slot.a = a;
+        slot.b = b;
+        slot.c = c;
+        slot.error = error;
+        slot.sequence = sequence + 1;
+    }
+
+    /**
+     * Writer thread: formats and writes the published records, flushing whenever the ring is empty
+     */
+    private void writeLoop() {
+        StringBuilder line = new StringBuilder(256);
+        while (true) {
+            if (!writeNext(line)) {
+                out.flush();
+                err.flush();
+                LockSupport.parkNanos(5_000_000);
+            }
+        }
+    }
+
+    /**
+     * Writes the published records left in the ring, called on shutdown
+     */
+    private synchronized void drain() {
+        StringBuilder line = new StringBuilder(256);
+        long deadline = System.nanoTime() + 1_000_000_000L;
+        while (consumed < next.get() && System.nanoTime() < deadline)
+            if (!writeNext(line))
+                Thread.onSpinWait();
+        out.flush();
+        err.flush();
+    }
+
+    /**
+     * Writes the next record if it has been published
+     * @param line the buffer used to format the record
+     * @return true if a record has been written
+     */
+    private synchronized boolean writeNext(StringBuilder line) {
+        long sequence = consumed;
+        Slot slot = slots[(int) (sequence & mask)];
+        if (slot.sequence != sequence + 1)
+            return false;
+        line.setLength(0);
+        line.append('[').append(slot.level).append("] ");
+        format(line, slot.format, slot.a, slot.b, slot.c);
+        PrintWriter target = slot.level.compareTo(Level.WARN) <= 0 ? err : out;
+        target.println(line);
+        if (slot.error != null)
+            slot.error.printStackTrace(target);
+        slot.format = null;
+        slot.a = slot.b = slot.c = null;
+        slot.error = null;
+        consumed = sequence + 1;
+        return true;
+    }
+
+    /**
+     * Replaces the "{}" placeholders of a format with the arguments
+     * @param line the buffer receiving the result
+     * @param format the format
+     * @param a the first argument
+     * @param b the second argument
+     * @param c the third argument
+     */
+    private static void format(StringBuilder line, String format, Object a, Object b, Object c) {
+        int argument = 0;
+        int start = 0;
+        int placeholder;
+        while ((placeholder = format.indexOf("{}", start)) >= 0) {
+            line.append(format, start, placeholder);
+            line.append(argument == 0 ? a : argument == 1 ? b : c);
+            argument++;
+            start = placeholder + 2;
+        }
+        line.append(format, start, format.length());
+    }
+
+    /**
+     * Parses a level name
+     * @param name the name, may be null
+     * @return the level, INFO if the name is null or unknown
+     */
+    private static Level parseLevel(String name) {
+        if (name == null)
+            return Level.INFO;
+        try {
+            return Level.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("[WARN] Unknown log level " + name + ", using info.");
+            return Level.INFO;
+        }
+    }
+
+    /**
+     * Parses the message body policy
+     * @param policy "full", "hidden" or a sampling rate N
+     * @return 1 to log every body, 0 to log none, N to log one out of N
+     */
+    private static int parseBodySampling(String policy) {
+        if (policy == null || policy.equalsIgnoreCase("full"))
+            return 1;
+        if (policy.equalsIgnoreCase("hidden"))
+            return 0;
+        try {
+            return Math.max(0, Integer.parseInt(policy.trim()));
+        } catch (NumberFormatException e) {
+            System.err.println("[WARN] Unknown message body policy " + policy + ", logging them all.");
+            return 1;
+        }
+    }
+}
@@ -1,8 +1,6 @@
 package server;
 
-import java.net.MalformedURLException;
-import java.rmi.Naming;
-import java.rmi.RemoteException;
+import java.io.IOException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 
@@ -20,9 +18,16 @@ public class ServerMain {
             for (String name : channel_names)
                 if (server.addChannel(name) != 0)
                     System.err.println("Couldn't add channel #" + name + ".");
-            Naming.rebind(serverName, server);
+            server.restoreHistory();
+            new RmiServerTransport(serverName).start(server);
             System.out.println("[INFO] Server" + serverName + " bound.");
-        } catch (RemoteException | MalformedURLException e) {
+            // optional NIO transport, alongside RMI
+            int nioPort = Integer.getInteger("irc.nio.port", 0);
+            if (nioPort > 0) {
+                new NioServerTransport(nioPort).start(server);
+                System.out.println("[INFO] Server " + serverName + " listening on nio://0.0.0.0:" + nioPort + ".");
+            }
+        } catch (IOException e) {
             e.printStackTrace();
         }
     }
@@ -0,0 +1,137 @@
+package server;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Metrics of a server, registered in the platform MBean server under the "rmi_irc" domain:
+ * one Server MBean for the server-wide counters and gauges, and one Operation MBean per timed operation
+ * (connect, join, send, verify, fan-out and liveness sweep).
+ * Recording happens in the instrumented classes with striped counters, this class only reads them.
+ */
+public class ServerMetrics implements ServerMetricsMBean {
+    private final IRCServer server;
+
+    /**
+     * ServerMetrics constructor
+     * @param server the server whose metrics are exposed
+     */
+    public ServerMetrics(IRCServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Returns the timed operations of the server
+     * @return the operation metrics
+     */
+    public List<OperationMetrics> getOperations() {
+        List<OperationMetrics> operations = new ArrayList<>();
+        operations.add(server.getConnectMetrics());
+        operations.add(server.getJoinMetrics());
+        operations.add(server.getSendMetrics());
+        operations.add(server.getSignatureVerifier().getMetrics());
+        operations.add(server.getDispatcher().getFanOutMetrics());
+        if (server.getDisconnectDetector() != null)
+            operations.add(server.getDisconnectDetector().getSweepMetrics());
+        return operations;
+    }
+
+    /**
+     * Registers the MBeans in the platform MBean server, logging a warning if they cannot be registered
+     */
+    public void register() {
+        MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+        String serverName = ObjectName.quote(server.getName());
+        try {
+            mbeans.registerMBean(this, new ObjectName("rmi_irc:type=Server,name=" + serverName));
+            for (OperationMetrics operation : getOperations())
+                mbeans.registerMBean(operation, new ObjectName("rmi_irc:type=Operation,server=" + serverName
+                        + ",name=" + ObjectName.quote(operation.getName())));
+        } catch (JMException e) {
+            ServerLog.warn("Unable to register the JMX metrics: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public int getClientsInLobby() {
+        return server.getClientsInLobby().size();
+    }
+
+    @Override
+    public long getBroadcasts() {
+        return server.getDispatcher().getRecipients().getCount();
+    }
+
+    @Override
+    public double getRecipientsPerBroadcastMean() {
+        return server.getDispatcher().getRecipients().getMean();
+    }
+
+    @Override
+    public long getRecipientsPerBroadcastP99() {
+        return server.getDispatcher().getRecipients().getPercentile(0.99);
+    }
+
+    @Override
+    public long getFailedCallbacks() {
+        return server.getDispatcher().getFailedDeliveries();
+    }
+
+    @Override
+    public long getFailedVerifications() {
+        return server.getSignatureVerifier().getFailedVerifications();
+    }
+
+    @Override
+    public long getRejectedReplays() {
+        return server.getSignatureVerifier().getRejectedReplays();
+    }
+
+    @Override
+    public long getQueueDepth() {
+        return server.getDispatcher().getTotalQueueDepth();
+    }
+
+    @Override
+    public long getDroppedMessages() {
+        return server.getDispatcher().getDroppedMessages();
+    }
+
+    @Override
+    public long getLastSweepMillis() {
+        DisconnectDetector detector = server.getDisconnectDetector();
+        return detector == null ? 0 : detector.getLastSweepMillis();
+    }
+
+    @Override
+    public long getEvictions() {
+        DisconnectDetector detector = server.getDisconnectDetector();
+        LeaseManager leases = server.getLeaseManager();
+        return (detector == null ? 0 : detector.getEvictions()) + (leases == null ? 0 : leases.getExpirations());
+    }
+
+    @Override
+    public int getThreadCount() {
+        return ManagementFactory.getThreadMXBean().getThreadCount();
+    }
+
+    @Override
+    public int getPeakThreadCount() {
+        return ManagementFactory.getThreadMXBean().getPeakThreadCount();
+    }
+
+    @Override
+    public boolean isVirtualThreads() {
+        return ServerExecutors.isVirtual();
+    }
+
+    @Override
+    public long getPinnedVirtualThreads() {
+        PinningMonitor monitor = server.getPinningMonitor();
+        return monitor == null ? 0 : monitor.getPinnedThreads();
+    }
+}
@@ -0,0 +1,96 @@
+package server;
+
+/**
+ * JMX view of the server-wide metrics. The per-operation latencies are exposed by separate OperationMetrics MBeans.
+ */
+public interface ServerMetricsMBean {
+    /**
+     * Returns the number of clients in the lobby
+     * @return the lobby size
+     */
+    int getClientsInLobby();
+
+    /**
+     * Returns the number of channel broadcasts
+     * @return the broadcasts count
+     */
+    long getBroadcasts();
+
+    /**
+     * Returns the mean number of recipients per broadcast
+     * @return the mean recipients
+     */
+    double getRecipientsPerBroadcastMean();
+
+    /**
+     * Returns the 99th percentile of the number of recipients per broadcast
+     * @return the 99th percentile
+     */
+    long getRecipientsPerBroadcastP99();
+
+    /**
+     * Returns the number of callbacks to the clients that failed
+     * @return the failed callbacks count
+     */
+    long getFailedCallbacks();
+
+    /**
+     * Returns the number of signature verifications that failed
+     * @return the failed verifications count
+     */
+    long getFailedVerifications();
+
+    /**
+     * Returns the number of requests rejected because their sequence number was replayed
+     * @return the rejected replays count
+     */
+    long getRejectedReplays();
+
+    /**
+     * Returns the number of messages waiting to be delivered to the clients
+     * @return the total queue depth
+     */
+    long getQueueDepth();
+
+    /**
+     * Returns the number of messages dropped because a client queue was full
+     * @return the dropped messages count
+     */
+    long getDroppedMessages();
+
+    /**
+     * Returns the duration of the last liveness sweep
+     * @return the duration in milliseconds, 0 when the server uses leases
+     */
+    long getLastSweepMillis();
+
+    /**
+     * Returns the number of clients disconnected by the liveness sweeps or by an expired lease
+     * @return the evictions count
+     */
+    long getEvictions();
+
+    /**
+     * Returns the number of live platform threads of the JVM, virtual threads are not counted
+     * @return the thread count
+     */
+    int getThreadCount();
+
+    /**
+     * Returns the highest number of live platform threads since the JVM started
+     * @return the peak thread count
+     */
+    int getPeakThreadCount();
+
+    /**
+     * Returns whether the outbound callbacks run on virtual threads
+     * @return true with virtual threads, false with platform thread pools
+     */
+    boolean isVirtualThreads();
+
+    /**
+     * Returns the number of times a virtual thread was pinned to its carrier for longer than "irc.pinning.threshold.ms"
+     * @return the pinned threads count, 0 without virtual threads
+     */
+    long getPinnedVirtualThreads();
+}
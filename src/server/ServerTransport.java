@@ -0,0 +1,15 @@
+package server;
+
+import java.io.IOException;
+
+/**
+ * Makes an IRCServer reachable by the clients
+ */
+public interface ServerTransport {
+
+    /**
+     * Starts accepting the clients of a server
+     * @param server the server
+     */
+    void start(IRCServer server) throws IOException;
+}
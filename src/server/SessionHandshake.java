@@ -0,0 +1,90 @@
+package server;
+
+import javax.crypto.KeyAgreement;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+
+/**
+ * Server's answer to a session handshake: the nonce seed and the server's ephemeral key agreement key.
+ * Both ends combine their own ephemeral key with the peer's one to derive the HMAC session key.
+ */
+public class SessionHandshake implements Serializable {
+    public static final String KEY_AGREEMENT_ALGORITHM = "X25519";
+    public static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final long serialVersionUID = 1L;
+
+    private final int seed;
+    private final PublicKey serverKey;
+
+    /**
+     * SessionHandshake constructor
+     * @param seed the seed of the session nonces
+     * @param serverKey the server's ephemeral key agreement public key
+     */
+    public SessionHandshake(int seed, PublicKey serverKey) {
+        this.seed = seed;
+        this.serverKey = serverKey;
+    }
+
+    /**
+     * Returns the seed of the session nonces
+     * @return the seed
+     */
+    public int getSeed() {
+        return seed;
+    }
+
+    /**
+     * Returns the server's ephemeral key agreement public key
+     * @return the public key
+     */
+    public PublicKey getServerKey() {
+        return serverKey;
+    }
+
+    /**
+     * Generates an ephemeral key pair for the key agreement
+     * @return the key pair
+     */
+    public static KeyPair generateKeyPair() throws NoSuchAlgorithmException {
+        return KeyPairGenerator.getInstance(KEY_AGREEMENT_ALGORITHM).generateKeyPair();
+    }
+
+    /**
+     * Derives the HMAC session key shared by a client and the server
+     * @param ownKey the private half of the local ephemeral key pair
+     * @param peerKey the peer's ephemeral public key
+     * @param username the username of the client, binds the key to the session
+     * @return the session key
+     */
+    public static SecretKey deriveSessionKey(PrivateKey ownKey, PublicKey peerKey, String username)
+            throws NoSuchAlgorithmException, InvalidKeyException {
+        KeyAgreement agreement = KeyAgreement.getInstance(KEY_AGREEMENT_ALGORITHM);
+        agreement.init(ownKey);
+        agreement.doPhase(peerKey, true);
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(agreement.generateSecret());
+        digest.update("rmi_irc session key".getBytes(StandardCharsets.UTF_8));
+        digest.update(username.getBytes(StandardCharsets.UTF_8));
+        return new SecretKeySpec(digest.digest(), MAC_ALGORITHM);
+    }
+
+    /**
+     * Builds the message signed by the client when it opens a session: the username followed by the
+     * encoded ephemeral key, so that the key cannot be replaced without breaking the signature
+     * @param username the username of the client
+     * @param sessionKey the client's ephemeral public key
+     * @return the bytes to sign
+     */
+    public static byte[] fingerprint(String username, PublicKey sessionKey) {
+        byte[] name = username.getBytes();
+        byte[] key = sessionKey.getEncoded();
+        byte[] ret = new byte[name.length + key.length];
+        System.arraycopy(name, 0, ret, 0, name.length);
+        System.arraycopy(key, 0, ret, name.length, key.length);
+        return ret;
+    }
+}
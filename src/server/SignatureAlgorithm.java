@@ -0,0 +1,178 @@
+package server;
+
+import java.security.AlgorithmParameters;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.InvalidParameterSpecException;
+import java.util.ArrayList;
+
+/**
+ * Algorithm of the key pair a client signs its connection and, without a session key, its requests with.
+ * The algorithm is carried by the client's public key, so the server recognizes it at connect time.
+ */
+public enum SignatureAlgorithm {
+    /** 2048-bit RSA with SHA-256 */
+    RSA("rsa", "RSA", "SHA256withRSA"),
+    /** ECDSA on the NIST P-256 curve with SHA-256 */
+    ECDSA_P256("ecdsa-p256", "EC", "SHA256withECDSA"),
+    /** EdDSA on Curve25519 */
+    ED25519("ed25519", "Ed25519", "Ed25519");
+
+    private static final int RSA_KEY_SIZE = 2048;
+    private static final String P256_CURVE = "secp256r1";
+    private static final ECParameterSpec P256_PARAMETERS = p256Parameters();
+
+    private final String id;
+    private final String keyAlgorithm;
+    private final String signatureAlgorithm;
+
+    /**
+     * SignatureAlgorithm constructor
+     * @param id the name used in the configuration and exchanged with the clients
+     * @param keyAlgorithm the JCA name of the key pair algorithm
+     * @param signatureAlgorithm the JCA name of the signature algorithm
+     */
+    SignatureAlgorithm(String id, String keyAlgorithm, String signatureAlgorithm) {
+        this.id = id;
+        this.keyAlgorithm = keyAlgorithm;
+        this.signatureAlgorithm = signatureAlgorithm;
+    }
+
+    /**
+     * Returns the name used in the configuration and exchanged with the clients
+     * @return the name, such as "ed25519"
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Returns the JCA name of the key pair algorithm, to build a KeyFactory
+     * @return the key algorithm, such as "EC"
+     */
+    public String getKeyAlgorithm() {
+        return keyAlgorithm;
+    }
+
+    /**
+     * Generates a key pair for this algorithm
+     * @return the key pair
+     */
+    public KeyPair generateKeyPair() throws NoSuchAlgorithmException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance(keyAlgorithm);
+        try {
+            if (this == RSA)
+                generator.initialize(RSA_KEY_SIZE);
+            else if (this == ECDSA_P256)
+                generator.initialize(new ECGenParameterSpec(P256_CURVE));
+        } catch (InvalidAlgorithmParameterException e) {
+            throw new NoSuchAlgorithmException(P256_CURVE + " is not supported", e);
+        }
+        return generator.generateKeyPair();
+    }
+
+    /**
+     * Creates a signature engine for this algorithm, to be initialized with a key
+     * @return the signature engine
+     */
+    public Signature newSignature() throws NoSuchAlgorithmException {
+        return Signature.getInstance(signatureAlgorithm);
+    }
+
+    /**
+     * Returns the algorithm of a public key
+     * @param key the public key
+     * @return the algorithm, null if the key belongs to none of the supported algorithms
+     */
+    public static SignatureAlgorithm fromKey(PublicKey key) {
+        if (key == null)
+            return null;
+        return switch (key.getAlgorithm()) {
+            case "RSA" -> RSA;
+            case "EC" -> key instanceof ECPublicKey ec && isP256(ec.getParams()) ? ECDSA_P256 : null;
+            case "Ed25519", "EdDSA" -> ED25519;
+            default -> null;
+        };
+    }
+
+    /**
+     * Checks whether EC domain parameters are those of P-256, other 256-bit curves such as secp256k1 or
+     * brainpoolP256r1 do not match
+     * @param params the domain parameters of a key
+     * @return true if the parameters are those of secp256r1
+     */
+    private static boolean isP256(ECParameterSpec params) {
+        return P256_PARAMETERS != null && params != null
+                && P256_PARAMETERS.getCurve().equals(params.getCurve())
+                && P256_PARAMETERS.getGenerator().equals(params.getGenerator())
+                && P256_PARAMETERS.getOrder().equals(params.getOrder())
+                && P256_PARAMETERS.getCofactor() == params.getCofactor();
+    }
+
+    /**
+     * Returns the domain parameters of P-256
+     * @return the parameters, null if the curve is not supported
+     */
+    private static ECParameterSpec p256Parameters() {
+        try {
+            AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+            parameters.init(new ECGenParameterSpec(P256_CURVE));
+            return parameters.getParameterSpec(ECParameterSpec.class);
+        } catch (NoSuchAlgorithmException | InvalidParameterSpecException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses an algorithm name such as "rsa", "ecdsa-p256" or "ed25519"
+     * @param name the algorithm name
+     * @return the algorithm, RSA if the name is null or unknown
+     */
+    public static SignatureAlgorithm fromString(String name) {
+        if (name == null)
+            return RSA;
+        SignatureAlgorithm algorithm = find(name);
+        if (algorithm != null)
+            return algorithm;
+        System.err.println("[WARN] Unknown signature algorithm " + name + ", using rsa.");
+        return RSA;
+    }
+
+    /**
+     * Parses a comma separated list of algorithm names, skipping the unknown ones
+     * @param names the algorithm names, in order of preference
+     * @return the algorithms, in the same order
+     */
+    public static ArrayList<SignatureAlgorithm> listFromString(String names) {
+        ArrayList<SignatureAlgorithm> algorithms = new ArrayList<>();
+        for (String name : names.split(",")) {
+            if (name.isBlank())
+                continue;
+            SignatureAlgorithm algorithm = find(name);
+            if (algorithm == null)
+                System.err.println("[WARN] Unknown signature algorithm " + name + ", ignored.");
+            else if (!algorithms.contains(algorithm))
+                algorithms.add(algorithm);
+        }
+        return algorithms;
+    }
+
+    /**
+     * Looks an algorithm up by its name or its constant name
+     * @param name the name
+     * @return the algorithm, null if the name is unknown
+     */
+    private static SignatureAlgorithm find(String name) {
+        for (SignatureAlgorithm algorithm : values())
+            if (algorithm.id.equalsIgnoreCase(name.trim()) || algorithm.name().equalsIgnoreCase(name.trim()))
+                return algorithm;
+        return null;
+    }
+}
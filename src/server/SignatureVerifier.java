@@ -1,29 +1,106 @@
 package server;
 
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
 import java.nio.ByteBuffer;
 import java.security.*;
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Verifies the clients' signatures.
+ * Only the public keys are shared between threads: every thread verifies with its own Signature and Mac
+ * instances, so requests of different users (or concurrent requests of the same user) never contend.
+ * The signature algorithms accepted are read from "irc.signature.algorithms", a comma separated list in order of
+ * preference (default ed25519,ecdsa-p256,rsa).
+ */
 public class SignatureVerifier {
 
-    private ConcurrentHashMap<String, Signature> clientKeys = new ConcurrentHashMap<>();
-    private ConcurrentHashMap<String, Random> clientRandomGenerators = new ConcurrentHashMap<>();
+    private ConcurrentHashMap<String, PublicKey> clientKeys = new ConcurrentHashMap<>();
+    private ConcurrentHashMap<String, ReplayWindow> clientReplayWindows = new ConcurrentHashMap<>();
+    private final int replayWindowSize = Integer.getInteger("irc.replay.window", 1024);
+    private final SecureRandom seedGenerator = new SecureRandom();
+    private ConcurrentHashMap<String, SecretKey> clientSessionKeys = new ConcurrentHashMap<>();
+    // one engine per algorithm and thread, created on first use
+    private static final ThreadLocal<Signature[]> signatures =
+            ThreadLocal.withInitial(() -> new Signature[SignatureAlgorithm.values().length]);
+    private static final ThreadLocal<Mac> macs = ThreadLocal.withInitial(() -> {
+        try {
+            return Mac.getInstance(SessionHandshake.MAC_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final LongAdder failedVerifications = new LongAdder();
+    private final OperationMetrics metrics = new OperationMetrics("verify");
+    private final LongAdder rejectedReplays = new LongAdder();
+    private final ArrayList<SignatureAlgorithm> allowedAlgorithms;
+
+    SignatureVerifier() {
+        ArrayList<SignatureAlgorithm> allowed =
+                SignatureAlgorithm.listFromString(System.getProperty("irc.signature.algorithms", "ed25519,ecdsa-p256,rsa"));
+        if (allowed.isEmpty()) {
+            ServerLog.warn("No known signature algorithm in {}, accepting them all.", System.getProperty("irc.signature.algorithms"));
+            allowed.addAll(List.of(SignatureAlgorithm.values()));
+        }
+        allowedAlgorithms = allowed;
+    }
+
+    /**
+     * Returns the signature algorithms accepted from the clients
+     * @return the algorithms, in order of preference
+     */
+    public ArrayList<SignatureAlgorithm> getAllowedAlgorithms() {
+        return new ArrayList<>(allowedAlgorithms);
+    }
 
-    SignatureVerifier() {}
+    /**
+     * Checks whether a client key uses an accepted signature algorithm
+     * @param publicKey the public key of the client
+     * @return true if the key can be used to connect
+     */
+    public boolean isAllowed(PublicKey publicKey) {
+        SignatureAlgorithm algorithm = SignatureAlgorithm.fromKey(publicKey);
+        return algorithm != null && allowedAlgorithms.contains(algorithm);
+    }
+
+    /**
+     * Returns this thread's signature engine for the algorithm of a key
+     * @param publicKey the public key to verify with
+     * @return the signature engine
+     */
+    private static Signature signatureFor(PublicKey publicKey) throws NoSuchAlgorithmException, InvalidKeyException {
+        SignatureAlgorithm algorithm = SignatureAlgorithm.fromKey(publicKey);
+        if (algorithm == null)
+            throw new InvalidKeyException("Unsupported key algorithm " + publicKey.getAlgorithm());
+        Signature[] engines = signatures.get();
+        Signature signature = engines[algorithm.ordinal()];
+        if (signature == null)
+            signature = engines[algorithm.ordinal()] = algorithm.newSignature();
+        return signature;
+    }
 
     /**
      * Adds a signature to the Signature Verifier
      * @param username the owner of the signature
-     * @param publicKey the signature to be added
-     * @return a randomly generated seed associated with the signature
+     * @param publicKey the signature to be added, its algorithm must be accepted
+     * @return a randomly generated seed associated with the signature, the first request sequence number of the client
      */
     public int addSignature(String username, PublicKey publicKey) throws NoSuchAlgorithmException, InvalidKeyException {
-        Signature signature = Signature.getInstance("SHA256withRSA");
-        signature.initVerify(publicKey);
-        clientKeys.put(username, signature);
-        int seed = new Random().nextInt();
-        clientRandomGenerators.put(username, new Random(seed));
+        if (!isAllowed(publicKey))
+            throw new InvalidKeyException("Signature algorithm of " + username + " not accepted");
+        // fail early on keys that cannot be used by the verifier
+        signatureFor(publicKey).initVerify(publicKey);
+        clientKeys.put(username, publicKey);
+        int seed;
+        do {
+            seed = seedGenerator.nextInt();
+        } while (seed == 0 || seed == -1); // reserved for connection errors
+        clientReplayWindows.put(username, new ReplayWindow(Integer.toUnsignedLong(seed), replayWindowSize));
         return seed;
     }
 
@@ -33,7 +110,34 @@ public class SignatureVerifier {
      */
     public void removeSignature(String username) {
         clientKeys.remove(username);
-        clientRandomGenerators.remove(username);
+        clientReplayWindows.remove(username);
+        clientSessionKeys.remove(username);
+    }
+
+    /**
+     * Sets the session key of a client, from now on its requests are authenticated with HMAC instead of signatures
+     * @param username the client owning the session key
+     * @param sessionKey the HMAC key agreed during the handshake
+     */
+    public void setSessionKey(String username, SecretKey sessionKey) {
+        clientSessionKeys.put(username, sessionKey);
+    }
+
+    /**
+     * Verifies an HMAC tag computed with the client's session key
+     * @param sessionKey the session key of the client
+     * @param message the message to calculate the tag on
+     * @param tag the tag to check
+     * @return true if the tag is valid, false otherwise
+     */
+    private boolean verifyMac(SecretKey sessionKey, byte[] message, byte[] tag) {
+        try {
+            Mac mac = macs.get();
+            mac.init(sessionKey);
+            return MessageDigest.isEqual(mac.doFinal(message), tag);
+        } catch (InvalidKeyException e) {
+            return false;
+        }
     }
 
     /**
@@ -44,28 +148,99 @@ public class SignatureVerifier {
      * @return true if the signature is valid, false otherwise
      */
     public boolean verifySignatureWithoutNonce(String username, byte[] message, byte[] signedFingerprint) {
-        try {
-            clientKeys.get(username).update(message);
-            return clientKeys.get(username).verify(signedFingerprint);
-        } catch (SignatureException e) {
-            return false;
+        long start = System.nanoTime();
+        boolean valid = false;
+        PublicKey publicKey = clientKeys.get(username);
+        if (publicKey != null) {
+            try {
+                Signature signature = signatureFor(publicKey);
+                signature.initVerify(publicKey);
+                signature.update(message);
+                valid = signature.verify(signedFingerprint);
+            } catch (SignatureException | InvalidKeyException | NoSuchAlgorithmException ignored) {}
         }
+        record(start, valid);
+        return valid;
     }
 
     /**
-     * Verifies a signature appending a randomly generated nonce
+     * Verifies a signature carrying a request sequence number.
+     * The fingerprint is the 8 byte sequence number followed by the signature of the message with the
+     * sequence number appended. Each sequence number is accepted once, within the client's replay window,
+     * so a client can have many requests in flight and they may arrive out of order.
+     * Clients that completed a session handshake are checked against their HMAC session key instead.
      * @param username the client who signed the message
      * @param message the message to calculate the signature on
      * @param signedFingerprint the fingerprint to check
      * @return true if the signature is valid, false otherwise
      */
     public boolean verifySignature(String username, byte[] message, byte[] signedFingerprint) {
-        byte[] nonce = new byte[8];
-        clientRandomGenerators.get(username).nextBytes(nonce);
-        byte[] byteMessage = new byte[message.length + nonce.length];
+        ReplayWindow window = clientReplayWindows.get(username);
+        if (window == null || signedFingerprint == null || signedFingerprint.length <= 8)
+            return false;
+        ByteBuffer fingerprint = ByteBuffer.wrap(signedFingerprint);
+        long sequence = fingerprint.getLong();
+        if (!window.isFresh(sequence)) {
+            rejectedReplays.increment();
+            return false;
+        }
+        byte[] byteMessage = new byte[message.length + 8];
         ByteBuffer bb = ByteBuffer.wrap(byteMessage);
         bb.put(message);
-        bb.put(nonce);
-        return verifySignatureWithoutNonce(username, bb.array(), signedFingerprint);
+        bb.putLong(sequence);
+        byte[] signature = Arrays.copyOfRange(signedFingerprint, 8, signedFingerprint.length);
+
+        boolean valid;
+        SecretKey sessionKey = clientSessionKeys.get(username);
+        if (sessionKey != null) {
+            long start = System.nanoTime();
+            valid = verifyMac(sessionKey, bb.array(), signature);
+            record(start, valid);
+        } else {
+            valid = verifySignatureWithoutNonce(username, bb.array(), signature);
+        }
+        // mark the sequence number only once the signature is known to be good
+        if (!valid)
+            return false;
+        if (!window.accept(sequence)) {
+            rejectedReplays.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Updates the verification statistics
+     * @param start the System.nanoTime() at which the verification started
+     * @param valid the outcome of the verification
+     */
+    private void record(long start, boolean valid) {
+        metrics.record(start);
+        if (!valid)
+            failedVerifications.increment();
+    }
+
+    /**
+     * Returns the count, rate and latency histogram of the verifications
+     * @return the verification metrics
+     */
+    public OperationMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the number of requests rejected because their sequence number was already used or too old
+     * @return the rejected replays count
+     */
+    public long getRejectedReplays() {
+        return rejectedReplays.sum();
+    }
+
+    /**
+     * Returns the number of verifications that failed
+     * @return the failed verifications count
+     */
+    public long getFailedVerifications() {
+        return failedVerifications.sum();
     }
 }
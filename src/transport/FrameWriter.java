@@ -0,0 +1,15 @@
+package transport;
+
+import java.io.IOException;
+
+/**
+ * Sends complete frames over a connection
+ */
+public interface FrameWriter {
+
+    /**
+     * Sends a frame, must be safe to call from several threads at once
+     * @param frame the frame, length prefix included
+     */
+    void write(byte[] frame) throws IOException;
+}
@@ -0,0 +1,72 @@
+package transport;
+
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+
+/**
+ * Identifies the methods of a remote interface with a short id, so that calls can name a method compactly.
+ * As with RMI method hashes, the id is derived from the method name and descriptor only, so adding a method to
+ * the interface leaves the ids of the existing methods unchanged and a peer built against an older interface
+ * gets an unknown id instead of the wrong method.
+ */
+class MethodTable {
+    private final HashMap<Long, Method> methods = new HashMap<>();
+    private final HashMap<Method, Long> ids = new HashMap<>();
+
+    /**
+     * MethodTable constructor
+     * @param remoteInterface the interface whose methods are identified
+     */
+    MethodTable(Class<?> remoteInterface) {
+        for (Method method : remoteInterface.getMethods()) {
+            long id = hash(method);
+            Method previous = methods.put(id, method);
+            if (previous != null)
+                throw new IllegalArgumentException("Methods " + previous + " and " + method + " have the same hash.");
+            ids.put(method, id);
+        }
+    }
+
+    /**
+     * Returns the id of a method
+     * @param method the method
+     * @return the id, 0 if the method does not belong to the interface
+     */
+    long idOf(Method method) {
+        Long id = ids.get(method);
+        return id == null ? 0 : id;
+    }
+
+    /**
+     * Returns the method with the given id
+     * @param id the id
+     * @return the method, null if the id is unknown
+     */
+    Method methodOf(long id) {
+        return methods.get(id);
+    }
+
+    /**
+     * Computes the id of a method: the first 8 bytes of the SHA-1 digest of its name and descriptor
+     * @param method the method
+     * @return the id
+     */
+    private static long hash(Method method) {
+        StringBuilder sb = new StringBuilder(method.getName()).append('(');
+        for (Class<?> type : method.getParameterTypes())
+            sb.append(type.descriptorString());
+        sb.append(')').append(method.getReturnType().descriptorString());
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = Math.min(8, digest.length) - 1; i >= 0; i--)
+                hash = (hash << 8) | (digest[i] & 0xFF);
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available.", e);
+        }
+    }
+}
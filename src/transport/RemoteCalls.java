@@ -0,0 +1,27 @@
+package transport;
+
+import java.rmi.RemoteException;
+import java.rmi.ServerException;
+import java.rmi.UnmarshalException;
+
+/**
+ * Helpers shared by the callers of remote methods, whatever the transport
+ */
+public final class RemoteCalls {
+    /** Message of the exception thrown when the remote object does not have the called method, the same as RMI's */
+    public static final String UNRECOGNIZED_METHOD = "unrecognized method hash: method not supported by remote object";
+
+    private RemoteCalls() {}
+
+    /**
+     * Checks whether a remote call failed because the remote object does not implement the method,
+     * as happens when calling a method added after the remote end was built
+     * @param e the exception thrown by the call
+     * @return true if the method is unknown to the remote object
+     */
+    public static boolean isUnsupportedMethod(RemoteException e) {
+        Throwable t = e instanceof ServerException ? e.getCause() : e;
+        return t instanceof UnmarshalException && t.getMessage() != null
+                && t.getMessage().contains("unrecognized method hash");
+    }
+}
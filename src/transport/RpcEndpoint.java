@@ -0,0 +1,256 @@
+package transport;
+
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.RemoteException;
+import java.rmi.UnmarshalException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One end of a framed, bidirectional connection carrying remote calls.
+ * Incoming calls are run on the local object, outgoing calls go through a proxy of the remote interface.
+ * Every frame is a 4 byte length followed by the frame kind, the call id and the serialized body:
+ * the method id and the arguments for a call, the result or the exception for a reply.
+ * A call to a method the local interface does not have is answered with an UNKNOWN_METHOD frame, which the caller
+ * throws as the UnmarshalException RMI throws for an unrecognized method hash, so that the same fallbacks work
+ * with both transports.
+ * A call that gets no reply within "irc.rpc.timeout.ms" milliseconds (default 120000, 0 to wait forever) fails with
+ * a RemoteException, so a peer that stopped answering without closing the connection cannot block the caller forever;
+ * closing the endpoint fails all the calls still waiting for their reply.
+ */
+public class RpcEndpoint {
+    public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+    private static final byte CALL = 1;
+    private static final byte REPLY = 2;
+    private static final byte FAILURE = 3;
+    private static final byte UNKNOWN_METHOD = 4;
+
+    private final Object target;
+    private final MethodTable localMethods;
+    private final FrameWriter writer;
+    private final Executor executor;
+    private final TypeFilter filter = new TypeFilter();
+    private final long callTimeoutMillis = Long.getLong("irc.rpc.timeout.ms", 120000);
+    private final AtomicLong nextCallId = new AtomicLong();
+    private final ConcurrentHashMap<Long, CompletableFuture<Object>> pendingCalls = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+
+    /**
+     * RpcEndpoint constructor
+     * @param localInterface the remote interface implemented by the local object
+     * @param target the local object receiving the incoming calls
+     * @param writer the sink of the outgoing frames
+     * @param executor the executor running the incoming calls
+     */
+    public RpcEndpoint(Class<?> localInterface, Object target, FrameWriter writer, Executor executor) {
+        this.target = target;
+        this.localMethods = new MethodTable(localInterface);
+        filter.allow(localInterface);
+        this.writer = writer;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns a proxy forwarding its calls to the remote end of the connection.
+     * Calls block until the reply arrives or the call timeout expires, connection failures and timeouts are thrown
+     * as RemoteException.
+     * @param remoteInterface the interface implemented by the remote object
+     * @return the proxy
+     */
+    public <T> T proxy(Class<T> remoteInterface) {
+        MethodTable remoteMethods = new MethodTable(remoteInterface);
+        filter.allow(remoteInterface);
+        Object proxy = Proxy.newProxyInstance(remoteInterface.getClassLoader(), new Class<?>[]{remoteInterface},
+                (p, method, args) -> switch (method.getName()) {
+                    case "hashCode" -> method.getDeclaringClass() == Object.class ? System.identityHashCode(p) : call(remoteMethods, method, args);
+                    case "equals" -> method.getDeclaringClass() == Object.class ? p == args[0] : call(remoteMethods, method, args);
+                    case "toString" -> method.getDeclaringClass() == Object.class ? "RpcProxy[" + remoteInterface.getName() + "]" : call(remoteMethods, method, args);
+                    default -> call(remoteMethods, method, args);
+                });
+        return remoteInterface.cast(proxy);
+    }
+
+    /**
+     * Sends a call and waits for its reply
+     * @param remoteMethods the method table of the remote interface
+     * @param method the method being called
+     * @param args the arguments
+     * @return the value returned by the remote object
+     */
+    private Object call(MethodTable remoteMethods, Method method, Object[] args) throws Throwable {
+        if (closed)
+            throw new RemoteException("Connection closed.");
+        long callId = nextCallId.incrementAndGet();
+        CompletableFuture<Object> reply = new CompletableFuture<>();
+        pendingCalls.put(callId, reply);
+        if (closed)
+            reply.completeExceptionally(new RemoteException("Connection closed."));
+        try {
+            writer.write(encode(CALL, callId, remoteMethods.idOf(method), args == null ? new Object[0] : args));
+            return callTimeoutMillis > 0 ? reply.get(callTimeoutMillis, TimeUnit.MILLISECONDS) : reply.get();
+        } catch (IOException e) {
+            throw e instanceof RemoteException ? e : new RemoteException("Unable to send call.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException || cause instanceof Error)
+                throw cause;
+            for (Class<?> declared : method.getExceptionTypes())
+                if (declared.isInstance(cause))
+                    throw cause;
+            throw new RemoteException("Remote call failed.", cause);
+        } catch (TimeoutException e) {
+            throw new RemoteException("No reply to " + method.getName() + " within " + callTimeoutMillis + " ms.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting for the reply.", e);
+        } finally {
+            pendingCalls.remove(callId);
+        }
+    }
+
+    /**
+     * Handles a frame received from the remote end
+     * @param payload the frame without its length prefix
+     */
+    public void onFrame(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte kind = in.readByte();
+        long callId = in.readLong();
+        switch (kind) {
+            case CALL -> {
+                long methodId = in.readLong();
+                executor.execute(() -> dispatch(callId, methodId, in));
+            }
+            case UNKNOWN_METHOD -> {
+                CompletableFuture<Object> reply = pendingCalls.get(callId);
+                if (reply != null)
+                    reply.completeExceptionally(new UnmarshalException(RemoteCalls.UNRECOGNIZED_METHOD));
+            }
+            case REPLY, FAILURE -> {
+                CompletableFuture<Object> reply = pendingCalls.get(callId);
+                if (reply == null)
+                    return; // the caller gave up
+                try {
+                    Object body = newObjectInput(in).readObject();
+                    if (kind == REPLY)
+                        reply.complete(body);
+                    else
+                        reply.completeExceptionally((Throwable) body);
+                } catch (ClassNotFoundException | ClassCastException | InvalidClassException e) {
+                    reply.completeExceptionally(new RemoteException("Malformed reply.", e));
+                }
+            }
+            default -> throw new IOException("Unknown frame kind " + kind + ".");
+        }
+    }
+
+    /**
+     * Runs an incoming call on the local object and sends back the reply
+     * @param callId the id of the call
+     * @param methodId the id of the called method
+     * @param in the stream positioned on the arguments
+     */
+    private void dispatch(long callId, long methodId, DataInputStream in) {
+        Method method = localMethods.methodOf(methodId);
+        if (method == null) {
+            try {
+                writer.write(encode(UNKNOWN_METHOD, callId, 0, null));
+            } catch (IOException ignored) {
+                // the connection is gone
+            }
+            return;
+        }
+        byte kind = REPLY;
+        Object result;
+        try {
+            Object[] args = (Object[]) newObjectInput(in).readObject();
+            result = method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            kind = FAILURE;
+            result = e.getCause();
+        } catch (Exception e) {
+            kind = FAILURE;
+            result = e instanceof RemoteException ? e : new RemoteException("Unable to dispatch call.", e);
+        }
+        try {
+            byte[] frame;
+            try {
+                frame = encode(kind, callId, 0, result);
+            } catch (NotSerializableException e) {
+                frame = encode(FAILURE, callId, 0, new RemoteException("Unable to marshal the reply.", e));
+            }
+            writer.write(frame);
+        } catch (IOException ignored) {
+            // the connection is gone, the caller gets notified by its own end
+        }
+    }
+
+    /**
+     * Opens an object stream on a frame body, accepting only the types of the remote interfaces
+     * @param in the stream positioned on the body
+     * @return the object stream
+     */
+    private ObjectInputStream newObjectInput(InputStream in) throws IOException {
+        ObjectInputStream objects = new ObjectInputStream(in);
+        objects.setObjectInputFilter(filter);
+        return objects;
+    }
+
+    /**
+     * Encodes a frame
+     * @param kind the frame kind
+     * @param callId the id of the call
+     * @param methodId the id of the called method, only written for calls
+     * @param body the arguments of a call, the result or the exception of a reply, nothing for UNKNOWN_METHOD
+     * @return the frame, length prefix included
+     */
+    private static byte[] encode(byte kind, long callId, long methodId, Object body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0); // length placeholder
+        out.writeByte(kind);
+        out.writeLong(callId);
+        if (kind == CALL)
+            out.writeLong(methodId);
+        if (kind != UNKNOWN_METHOD) {
+            ObjectOutputStream objects = new ObjectOutputStream(out);
+            objects.writeObject(body);
+            objects.flush();
+        }
+        byte[] frame = bytes.toByteArray();
+        int length = frame.length - 4;
+        if (length > MAX_FRAME_LENGTH)
+            throw new IOException("Frame too large.");
+        frame[0] = (byte) (length >>> 24);
+        frame[1] = (byte) (length >>> 16);
+        frame[2] = (byte) (length >>> 8);
+        frame[3] = (byte) length;
+        return frame;
+    }
+
+    /**
+     * Fails all the calls waiting for a reply, further calls fail immediately
+     */
+    public void close() {
+        closed = true;
+        for (CompletableFuture<Object> reply : pendingCalls.values())
+            reply.completeExceptionally(new RemoteException("Connection closed."));
+        pendingCalls.clear();
+    }
+
+    /**
+     * Returns whether the connection was closed
+     * @return true if the connection is closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+}
@@ -0,0 +1,93 @@
+package transport;
+
+import java.io.ObjectInputFilter;
+import java.lang.reflect.Method;
+import java.rmi.Remote;
+import java.security.KeyRep;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Deserialization filter of a connection: only the parameter and return types of the remote interfaces are
+ * accepted, together with the few JDK classes they are serialized as (boxed primitives, ArrayList, the KeyRep of a
+ * public key), the JDK implementations of the declared interfaces, such as the key a KeyRep resolves to, and the
+ * JDK exceptions of failed calls. Every other class, including gadget classes that happen to be
+ * on the class path, is rejected before it is instantiated.
+ */
+class TypeFilter implements ObjectInputFilter {
+    private static final int MAX_DEPTH = 32;
+    private static final long MAX_REFERENCES = 1 << 20;
+    private static final Set<Class<?>> BASE_TYPES = Set.of(Object.class, String.class, Number.class, Boolean.class,
+            Byte.class, Short.class, Integer.class, Long.class, Float.class, Double.class, Character.class,
+            Enum.class, ArrayList.class, KeyRep.class, KeyRep.Type.class, StackTraceElement.class,
+            Collections.emptyList().getClass(), Collections.unmodifiableList(new ArrayList<>()).getClass());
+
+    private final Set<Class<?>> allowed = ConcurrentHashMap.newKeySet();
+    private final Set<Class<?>> allowedInterfaces = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Accepts the parameter and return types of the methods of a remote interface
+     * @param remoteInterface the interface
+     */
+    void allow(Class<?> remoteInterface) {
+        for (Method method : remoteInterface.getMethods()) {
+            for (Class<?> type : method.getParameterTypes())
+                allowType(elementType(type));
+            allowType(elementType(method.getReturnType()));
+        }
+    }
+
+    /**
+     * Accepts a type and, for the interfaces that are not remote interfaces, their JDK implementations
+     * @param type the type
+     */
+    private void allowType(Class<?> type) {
+        allowed.add(type);
+        if (type.isInterface() && !Remote.class.isAssignableFrom(type))
+            allowedInterfaces.add(type);
+    }
+
+    @Override
+    public Status checkInput(FilterInfo info) {
+        if (info.depth() > MAX_DEPTH || info.references() > MAX_REFERENCES
+                || info.arrayLength() > RpcEndpoint.MAX_FRAME_LENGTH)
+            return Status.REJECTED;
+        Class<?> type = info.serialClass();
+        if (type == null)
+            return Status.UNDECIDED;
+        type = elementType(type);
+        if (type.isPrimitive() || BASE_TYPES.contains(type) || allowed.contains(type))
+            return Status.ALLOWED;
+        if (!isJdkClass(type))
+            return Status.REJECTED;
+        if (Throwable.class.isAssignableFrom(type))
+            return Status.ALLOWED;
+        for (Class<?> declared : allowedInterfaces)
+            if (declared.isAssignableFrom(type))
+                return Status.ALLOWED;
+        return Status.REJECTED;
+    }
+
+    /**
+     * Checks whether a class belongs to the JDK
+     * @param type the class
+     * @return true if the class was loaded by the bootstrap or the platform class loader
+     */
+    private static boolean isJdkClass(Class<?> type) {
+        ClassLoader loader = type.getClassLoader();
+        return loader == null || loader == ClassLoader.getPlatformClassLoader();
+    }
+
+    /**
+     * Returns the element type of an array type
+     * @param type the type
+     * @return the innermost component type for arrays, the type itself otherwise
+     */
+    private static Class<?> elementType(Class<?> type) {
+        while (type.isArray())
+            type = type.getComponentType();
+        return type;
+    }
+}
@@ -0,0 +1,155 @@
+package transport;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.WeakHashMap;
+
+/**
+ * Hand-written encoding helpers for the wire format.
+ * Names (usernames, channel names) are interned per stream: the first occurrence of a name in a stream is
+ * written in full and gets the next id, later occurrences only write the id. Since both RMI and the NIO
+ * transport open a new object stream per call, a batch of messages from the same sender carries the sender once.
+ * An object stream is only ever used by the thread marshalling or unmarshalling its call, so the name tables are
+ * kept per thread and no lock is shared between concurrent calls.
+ */
+public final class WireNames {
+    private static final ThreadLocal<WeakHashMap<DataOutput, HashMap<String, Integer>>> writtenNames = ThreadLocal.withInitial(WeakHashMap::new);
+    private static final ThreadLocal<WeakHashMap<DataInput, ArrayList<String>>> readNames = ThreadLocal.withInitial(WeakHashMap::new);
+
+    private WireNames() {}
+
+    /**
+     * Writes a name, interning it in the stream's name table.
+     * Encoding: 0 for null, 1 followed by the length-prefixed UTF-8 name for a new name, id + 2 for a known name.
+     * @param out the stream
+     * @param name the name, may be null
+     */
+    public static void writeName(DataOutput out, String name) throws IOException {
+        if (name == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        HashMap<String, Integer> table = writtenNames.get().computeIfAbsent(out, o -> new HashMap<>());
+        Integer id = table.get(name);
+        if (id != null) {
+            writeVarInt(out, id + 2);
+            return;
+        }
+        table.put(name, table.size());
+        writeVarInt(out, 1);
+        writeBytes(out, name.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads a name written by writeName
+     * @param in the stream
+     * @return the name, may be null
+     */
+    public static String readName(DataInput in) throws IOException {
+        int code = readVarInt(in);
+        if (code == 0)
+            return null;
+        ArrayList<String> table = readNames.get().computeIfAbsent(in, i -> new ArrayList<>());
+        if (code == 1) {
+            String name = new String(readBytes(in), StandardCharsets.UTF_8);
+            table.add(name);
+            return name;
+        }
+        if (code - 2 >= table.size())
+            throw new InvalidObjectException("Unknown name id " + (code - 2) + ".");
+        return table.get(code - 2);
+    }
+
+    /**
+     * Writes a length-prefixed byte array
+     * @param out the stream
+     * @param bytes the bytes, may be null
+     */
+    public static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a byte array written by writeBytes
+     * @param in the stream
+     * @return the bytes, may be null
+     */
+    public static byte[] readBytes(DataInput in) throws IOException {
+        int length = readVarInt(in) - 1;
+        if (length < 0)
+            return null;
+        if (length > RpcEndpoint.MAX_FRAME_LENGTH)
+            throw new InvalidObjectException("Field too large.");
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes a non-negative int using 7 bits per byte
+     * @param out the stream
+     * @param value the value
+     */
+    public static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Reads an int written by writeVarInt
+     * @param in the stream
+     * @return the value
+     */
+    public static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new InvalidObjectException("Malformed varint.");
+    }
+
+    /**
+     * Writes a long using 7 bits per byte
+     * @param out the stream
+     * @param value the value
+     */
+    public static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Reads a long written by writeVarLong
+     * @param in the stream
+     * @return the value
+     */
+    public static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new InvalidObjectException("Malformed varint.");
+    }
+}